@@ -29,10 +29,15 @@ import dev.waterdog.console.TerminalConsole;
 import dev.waterdog.event.EventManager;
 import dev.waterdog.event.defaults.DispatchCommandEvent;
 import dev.waterdog.logger.MainLogger;
+import dev.waterdog.network.CryptoExecutor;
+import dev.waterdog.network.DownstreamClientManager;
 import dev.waterdog.network.ProxyListener;
+import dev.waterdog.network.ServerHealthMonitor;
 import dev.waterdog.network.ServerInfo;
 import dev.waterdog.network.protocol.ProtocolConstants;
 import dev.waterdog.network.protocol.ProtocolVersion;
+import dev.waterdog.player.KeyPairPool;
+import dev.waterdog.player.MassTransferService;
 import dev.waterdog.player.PlayerManager;
 import dev.waterdog.player.ProxiedPlayer;
 import dev.waterdog.plugin.PluginManager;
@@ -68,6 +73,11 @@ public class ProxyServer {
     private final PackManager packManager;
 
     private BedrockServer bedrockServer;
+    private final DownstreamClientManager clientManager;
+    private final ServerHealthMonitor healthMonitor;
+    private final CryptoExecutor cryptoExecutor;
+    private final KeyPairPool keyPairPool;
+    private final MassTransferService massTransferService;
     private final ServerList serverInfoMap;
     private QueryHandler queryHandler;
 
@@ -115,14 +125,19 @@ public class ProxyServer {
         }
         this.configurationManager.loadLanguage();
         // Default Handlers
-        this.reconnectHandler = new VanillaReconnectHandler();
-        this.joinHandler = new VanillaJoinHandler(this);
+        this.reconnectHandler = this.getConfiguration().getFallbackServers().isEmpty() ? new VanillaReconnectHandler() : new BalancingReconnectHandler(this);
+        this.joinHandler = this.createJoinHandler();
         this.serverInfoMap = this.configurationManager.getProxyConfig().getServerInfoMap();
         this.pluginManager = new PluginManager(this);
         this.scheduler = new WaterdogScheduler(this);
         this.playerManager = new PlayerManager(this);
         this.eventManager = new EventManager(this);
         this.packManager = new PackManager(this);
+        this.clientManager = new DownstreamClientManager(this);
+        this.healthMonitor = new ServerHealthMonitor(this);
+        this.cryptoExecutor = new CryptoExecutor(this);
+        this.keyPairPool = new KeyPairPool(this);
+        this.massTransferService = new MassTransferService(this);
 
         this.commandSender = new ConsoleCommandSender(this);
         this.commandMap = new DefaultCommandMap(this, SimpleCommandMap.DEFAULT_PREFIX);
@@ -130,6 +145,18 @@ public class ProxyServer {
         this.boot();
     }
 
+    private IJoinHandler createJoinHandler() {
+        String strategyName = this.getConfiguration().getJoinStrategy();
+        BalancingJoinHandler.Strategy strategy = BalancingJoinHandler.Strategy.fromName(strategyName);
+        if (strategy == null) {
+            if (!"first".equalsIgnoreCase(strategyName)) {
+                this.logger.warning("Unknown join strategy " + strategyName + ", using first server from priority list");
+            }
+            return new VanillaJoinHandler(this);
+        }
+        return new BalancingJoinHandler(this, strategy);
+    }
+
     public static ProxyServer getInstance() {
         return instance;
     }
@@ -160,6 +187,8 @@ public class ProxyServer {
         this.logger.debug("Upstream <-> Proxy compression level " + this.getConfiguration().getUpstreamCompression());
         this.logger.debug("Downstream <-> Proxy compression level " + this.getConfiguration().getDownstreamCompression());
 
+        this.healthMonitor.start();
+        this.keyPairPool.start();
         Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
         this.tickFuture = this.tickExecutor.scheduleAtFixedRate(this::tickProcessor, 50, 50, TimeUnit.MILLISECONDS);
     }
@@ -199,6 +228,11 @@ public class ProxyServer {
         this.tickExecutor.shutdown();
         this.scheduler.shutdown();
         this.eventManager.getThreadedExecutor().shutdown();
+        this.healthMonitor.stop();
+        this.massTransferService.stop();
+        this.cryptoExecutor.shutdown();
+        this.keyPairPool.shutdown();
+        this.clientManager.close();
         try {
             if (this.bedrockServer != null) {
                 this.bedrockServer.close();
@@ -239,10 +273,27 @@ public class ProxyServer {
     }
 
     public CompletableFuture<BedrockClient> bindClient(ProtocolVersion protocol) {
-        InetSocketAddress address = new InetSocketAddress("0.0.0.0", 0);
-        BedrockClient client = new BedrockClient(address);
-        client.setRakNetVersion(protocol.getRaknetVersion());
-        return client.bind().thenApply(i -> client);
+        return this.clientManager.bindClient(protocol);
+    }
+
+    public DownstreamClientManager getClientManager() {
+        return this.clientManager;
+    }
+
+    public ServerHealthMonitor getHealthMonitor() {
+        return this.healthMonitor;
+    }
+
+    public CryptoExecutor getCryptoExecutor() {
+        return this.cryptoExecutor;
+    }
+
+    public KeyPairPool getKeyPairPool() {
+        return this.keyPairPool;
+    }
+
+    public MassTransferService getMassTransferService() {
+        return this.massTransferService;
     }
 
     public boolean isRunning() {
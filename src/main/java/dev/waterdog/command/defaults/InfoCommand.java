@@ -15,10 +15,14 @@
 
 package dev.waterdog.command.defaults;
 
+import dev.waterdog.ProxyServer;
 import dev.waterdog.VersionInfo;
 import dev.waterdog.command.Command;
 import dev.waterdog.command.CommandSender;
 import dev.waterdog.command.CommandSettings;
+import dev.waterdog.network.DownstreamClientManager;
+import dev.waterdog.network.bridge.TransferQueue;
+import dev.waterdog.player.TransferResetBatch;
 
 public class InfoCommand extends Command {
 
@@ -32,11 +36,19 @@ public class InfoCommand extends Command {
 
     @Override
     public boolean onExecute(CommandSender sender, String alias, String[] args) {
+        DownstreamClientManager clientManager = ProxyServer.getInstance().getClientManager();
         sender.sendMessage("§bRunning WaterdogPE version §3" + VersionInfo.BASE_VERSION + "§b!\n" +
                 "§3Build Version: §b" + VersionInfo.BUILD_VERSION + "\n" +
                 "§3Latest Protocol: §b" + VersionInfo.LATEST_PROTOCOL_VERSION + "\n" +
                 "§3Author: §b" + VersionInfo.AUTHOR + "\n" +
-                "§3Developer Mode: " + (VersionInfo.IS_DEVELOPMENT ? "§cenabled" : "§adisabled"));
+                "§3Developer Mode: " + (VersionInfo.IS_DEVELOPMENT ? "§cenabled" : "§adisabled") + "\n" +
+                "§3Transfer Queues: §b" + TransferQueue.getGlobalPacketCount() + " packets, " + TransferQueue.getGlobalBytes() + " bytes, " +
+                TransferQueue.getTotalDroppedCount() + " dropped, " + TransferQueue.getTotalReplacedCount() + " replaced, " +
+                TransferQueue.getTotalOverflowCount() + " overflows\n" +
+                "§3Transfer Resets: §b" + TransferResetBatch.getTotalResetCount() + " resets, " + TransferResetBatch.getTotalPacketCount() + " packets, " +
+                TransferResetBatch.getLastSize() + " packets last\n" +
+                "§3Downstream Sockets: §b" + clientManager.getSocketCount() + " sockets, " + clientManager.getSessionCount() + " sessions, " +
+                clientManager.getPendingPingCount() + " pending pings");
         return true;
     }
 }
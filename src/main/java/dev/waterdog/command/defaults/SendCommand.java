@@ -22,6 +22,7 @@ import dev.waterdog.command.Command;
 import dev.waterdog.command.CommandSender;
 import dev.waterdog.command.CommandSettings;
 import dev.waterdog.network.ServerInfo;
+import dev.waterdog.player.MassTransfer;
 import dev.waterdog.player.ProxiedPlayer;
 import dev.waterdog.utils.types.TextContainer;
 
@@ -61,9 +62,8 @@ public class SendCommand extends Command {
             return true;
         }
 
-        for (ProxiedPlayer player : targetServer.getPlayers()) {
-            player.connect(server);
-        }
+        MassTransfer transfer = sender.getProxy().getMassTransferService().transfer(targetServer.getPlayers(), server);
+        sender.sendMessage(new TextContainer("§aSending {%0} players to {%1}", String.valueOf(transfer.getTotal()), server.getServerName()));
         return true;
     }
 
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network;
+
+import dev.waterdog.ProxyServer;
+
+/**
+ * Tracks failed connections to downstream server.
+ * After configured count of consecutive failures the circuit is opened and the server should not be used.
+ * Once open time passes, single connection is allowed as a probe. Successful probe closes the circuit,
+ * failed probe opens it again.
+ */
+public class CircuitBreaker {
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedTime = 0;
+    private long probeTime = 0;
+
+    /**
+     * @return if connection to the server can be attempted. Does not reserve half-open probe.
+     */
+    public synchronized boolean isAvailable() {
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.currentTimeMillis() - this.openedTime >= this.getOpenTime();
+            case HALF_OPEN:
+            default:
+                // Probe which did not complete in time is not waited for anymore
+                return System.currentTimeMillis() - this.probeTime >= this.getOpenTime();
+        }
+    }
+
+    /**
+     * Reserves connection attempt. In half-open state only one attempt is allowed at time.
+     * @return if connection to the server can be attempted.
+     */
+    public synchronized boolean tryAcquire() {
+        if (!this.isAvailable()) {
+            return false;
+        }
+
+        if (this.state != State.CLOSED) {
+            this.state = State.HALF_OPEN;
+            this.probeTime = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        this.state = State.CLOSED;
+        this.failures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        this.failures++;
+        if (this.state == State.HALF_OPEN || this.failures >= this.getFailureThreshold()) {
+            this.state = State.OPEN;
+            this.openedTime = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    public synchronized int getFailures() {
+        return this.failures;
+    }
+
+    private int getFailureThreshold() {
+        return ProxyServer.getInstance().getConfiguration().getCircuitBreakerFailures();
+    }
+
+    private long getOpenTime() {
+        return ProxyServer.getInstance().getConfiguration().getCircuitBreakerOpenTime();
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import dev.waterdog.ProxyServer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded thread pool running expensive login and handshake cryptography, so it does not block network event loops.
+ * Tasks which do not fit to the queue are rejected and their future fails with RejectedExecutionException.
+ * Results should be resumed on the event loop of the session using whenCompleteAsync(action, eventLoop).
+ */
+public class CryptoExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    public CryptoExecutor(ProxyServer proxy) {
+        int threads = proxy.getConfiguration().getCryptoThreads();
+        if (threads <= 0) {
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+        int queueSize = Math.max(1, proxy.getConfiguration().getCryptoQueueSize());
+
+        ThreadFactoryBuilder builder = new ThreadFactoryBuilder();
+        builder.setNameFormat("WaterdogCrypto Executor #%d");
+        builder.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), builder.build());
+    }
+
+    public <T> CompletableFuture<T> supply(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            this.executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * @return count of tasks waiting in the queue.
+     */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    public int getThreadCount() {
+        return this.executor.getMaximumPoolSize();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network;
+
+import com.nukkitx.network.raknet.RakNetPong;
+import com.nukkitx.protocol.bedrock.BedrockClient;
+import com.nukkitx.protocol.bedrock.BedrockClientSession;
+import dev.waterdog.ProxyServer;
+import dev.waterdog.network.protocol.ProtocolConstants;
+import dev.waterdog.network.protocol.ProtocolVersion;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Manages sockets bound for downstream connections.
+ * Every player connection needs its own client, because RakNet client can hold only one session.
+ * Pings are sent using small set of shared clients which stay bound, and concurrent pings
+ * to same server share one request. All clients use common event loop group of the network library.
+ */
+public class DownstreamClientManager {
+
+    /**
+     * Count of shared clients used for pinging.
+     */
+    public static final int PING_CLIENTS = 2;
+
+    /**
+     * Client which did not open session within this time in milliseconds is not counted anymore.
+     */
+    private static final long CONNECT_TIMEOUT = 30000;
+
+    private final ProxyServer proxy;
+
+    private final Map<BedrockClient, Long> clients = new ConcurrentHashMap<>();
+    private final CompletableFuture<BedrockClient>[] pingClients;
+    private final AtomicInteger nextPingClient = new AtomicInteger();
+    private final Map<InetSocketAddress, CompletableFuture<RakNetPong>> pendingPings = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    @SuppressWarnings("unchecked")
+    public DownstreamClientManager(ProxyServer proxy) {
+        this.proxy = proxy;
+        this.pingClients = new CompletableFuture[PING_CLIENTS];
+    }
+
+    /**
+     * @return client bound to new ephemeral port which is used for single downstream connection.
+     */
+    public CompletableFuture<BedrockClient> bindClient(ProtocolVersion protocol) {
+        BedrockClient client = this.createClient(protocol);
+        return client.bind().thenApply(i -> {
+            this.clients.put(client, System.currentTimeMillis());
+            return client;
+        });
+    }
+
+    /**
+     * Connects client bound by this manager. Client is no longer tracked once connection fails or its session is closed.
+     */
+    public CompletableFuture<BedrockClientSession> connect(BedrockClient client, InetSocketAddress address) {
+        return client.connect(address).whenComplete((session, error) -> {
+            if (error != null || session == null) {
+                this.clients.remove(client);
+                return;
+            }
+
+            session.addDisconnectHandler(reason -> this.clients.remove(client));
+            if (session.isClosed()) {
+                this.clients.remove(client);
+            }
+        });
+    }
+
+    private BedrockClient createClient(ProtocolVersion protocol) {
+        InetSocketAddress address = new InetSocketAddress("0.0.0.0", 0);
+        BedrockClient client = new BedrockClient(address);
+        client.setRakNetVersion(protocol.getRaknetVersion());
+        return client;
+    }
+
+    /**
+     * Pings server using one of shared clients. If the server is already being pinged, pending ping is returned.
+     */
+    public CompletableFuture<RakNetPong> ping(InetSocketAddress address, long timeout, TimeUnit unit) {
+        CompletableFuture<RakNetPong> pending = this.pendingPings.get(address);
+        if (pending != null) {
+            return pending;
+        }
+
+        CompletableFuture<RakNetPong> future = new CompletableFuture<>();
+        pending = this.pendingPings.putIfAbsent(address, future);
+        if (pending != null) {
+            return pending;
+        }
+
+        this.getPingClient().thenCompose(client -> client.getRakNet().ping(address, timeout, unit)).whenComplete((pong, error) -> {
+            this.pendingPings.remove(address, future);
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(pong);
+            }
+        });
+        return future;
+    }
+
+    private synchronized CompletableFuture<BedrockClient> getPingClient() {
+        if (this.closed) {
+            CompletableFuture<BedrockClient> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Client manager is closed"));
+            return future;
+        }
+
+        int index = Math.floorMod(this.nextPingClient.getAndIncrement(), PING_CLIENTS);
+        CompletableFuture<BedrockClient> future = this.pingClients[index];
+        if (future == null || future.isCompletedExceptionally()) {
+            BedrockClient client = this.createClient(ProtocolConstants.getLatestProtocol());
+            this.pingClients[index] = future = client.bind().thenApply(i -> client);
+        }
+        return future;
+    }
+
+    public synchronized void close() {
+        this.closed = true;
+        for (int i = 0; i < PING_CLIENTS; i++) {
+            CompletableFuture<BedrockClient> future = this.pingClients[i];
+            if (future != null) {
+                future.thenAccept(BedrockClient::close);
+                this.pingClients[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return count of sockets bound for player connections and for pinging.
+     */
+    public int getSocketCount() {
+        this.removeClosedClients();
+        int count = this.clients.size();
+        for (CompletableFuture<BedrockClient> future : this.pingClients) {
+            if (future != null && future.isDone() && !future.isCompletedExceptionally()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return count of open downstream sessions.
+     */
+    public int getSessionCount() {
+        this.removeClosedClients();
+        int count = 0;
+        for (BedrockClient client : this.clients.keySet()) {
+            if (client.getSession() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return average count of sessions and pending pings per bound socket.
+     */
+    public double getSessionsPerSocket() {
+        int sockets = this.getSocketCount();
+        return sockets == 0 ? 0 : (double) (this.getSessionCount() + this.getPendingPingCount()) / sockets;
+    }
+
+    public int getPendingPingCount() {
+        return this.pendingPings.size();
+    }
+
+    private void removeClosedClients() {
+        long now = System.currentTimeMillis();
+        this.clients.entrySet().removeIf(entry -> {
+            BedrockClient client = entry.getKey();
+            if (client.getSession() != null) {
+                return client.getSession().isClosed();
+            }
+            return now - entry.getValue() > CONNECT_TIMEOUT;
+        });
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network;
+
+import lombok.ToString;
+
+/**
+ * Immutable snapshot of downstream server health collected by ServerHealthMonitor.
+ * New snapshot is created on every ping result, so it can be safely read from any thread.
+ */
+@ToString
+public final class ServerHealth {
+
+    public static final ServerHealth UNKNOWN = new ServerHealth(State.UNKNOWN, -1, -1, -1, 0, 0);
+
+    private final State state;
+    private final double rtt;
+    private final int playerCount;
+    private final int maxPlayers;
+    private final int consecutiveFailures;
+    private final long lastPongTime;
+
+    public ServerHealth(State state, double rtt, int playerCount, int maxPlayers, int consecutiveFailures, long lastPongTime) {
+        this.state = state;
+        this.rtt = rtt;
+        this.playerCount = playerCount;
+        this.maxPlayers = maxPlayers;
+        this.consecutiveFailures = consecutiveFailures;
+        this.lastPongTime = lastPongTime;
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    /**
+     * @return exponentially weighted moving average of round trip time in milliseconds or -1 if unknown.
+     */
+    public double getRtt() {
+        return this.rtt;
+    }
+
+    /**
+     * @return player count reported by last pong or -1 if unknown.
+     */
+    public int getPlayerCount() {
+        return this.playerCount;
+    }
+
+    /**
+     * @return maximum player count reported by last pong or -1 if unknown.
+     */
+    public int getMaxPlayers() {
+        return this.maxPlayers;
+    }
+
+    public int getConsecutiveFailures() {
+        return this.consecutiveFailures;
+    }
+
+    /**
+     * @return time in milliseconds when last pong was received or 0 if none was received.
+     */
+    public long getLastPongTime() {
+        return this.lastPongTime;
+    }
+
+    /**
+     * @return false if the server is known to be down. Servers which were not checked are considered available.
+     */
+    public boolean isAvailable() {
+        return this.state != State.DOWN;
+    }
+
+    public boolean isFull() {
+        return this.maxPlayers > 0 && this.playerCount >= this.maxPlayers;
+    }
+
+    public enum State {
+        /**
+         * Server was not checked yet or health checks are disabled.
+         */
+        UNKNOWN,
+        UP,
+        /**
+         * Server responds slowly, is full or some of last pings failed.
+         */
+        DEGRADED,
+        DOWN
+    }
+}
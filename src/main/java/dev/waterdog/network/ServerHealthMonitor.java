@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network;
+
+import com.nukkitx.network.raknet.RakNetPong;
+import com.nukkitx.protocol.bedrock.BedrockPong;
+import dev.waterdog.ProxyServer;
+import dev.waterdog.network.ServerHealth.State;
+import dev.waterdog.scheduler.TaskHandler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically pings all registered servers using shared ping sockets and updates their health snapshot.
+ */
+public class ServerHealthMonitor {
+
+    /**
+     * Weight of newest round trip time in moving average.
+     */
+    public static final double RTT_WEIGHT = 0.3;
+
+    private final ProxyServer proxy;
+    private TaskHandler task;
+
+    public ServerHealthMonitor(ProxyServer proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * Starts health checks if they are enabled in config.
+     */
+    public void start() {
+        int interval = this.proxy.getConfiguration().getHealthCheckInterval();
+        if (interval > 0 && this.task == null) {
+            this.task = this.proxy.getScheduler().scheduleRepeating(this::checkServers, interval * 20, true);
+        }
+    }
+
+    public void stop() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+    }
+
+    public void checkServers() {
+        for (ServerInfo serverInfo : this.proxy.getServers()) {
+            this.checkServer(serverInfo);
+        }
+    }
+
+    public void checkServer(ServerInfo serverInfo) {
+        long timeout = this.proxy.getConfiguration().getHealthCheckTimeout();
+        long startTime = System.nanoTime();
+        serverInfo.ping(timeout, TimeUnit.MILLISECONDS).whenComplete((pong, error) -> {
+            if (error != null) {
+                serverInfo.updateHealth(this::onFailure);
+            } else {
+                double rtt = (System.nanoTime() - startTime) / 1_000_000D;
+                serverInfo.updateHealth(health -> this.onPong(health, rtt, pong));
+            }
+        });
+    }
+
+    private ServerHealth onPong(ServerHealth health, double rtt, RakNetPong pong) {
+        int playerCount = health.getPlayerCount();
+        int maxPlayers = health.getMaxPlayers();
+        try {
+            BedrockPong bedrockPong = BedrockPong.fromRakNet(pong.getUserData());
+            playerCount = bedrockPong.getPlayerCount();
+            maxPlayers = bedrockPong.getMaximumPlayerCount();
+        } catch (Exception e) {
+            // Server does not send bedrock pong data, keep previous counts
+        }
+
+        double averageRtt = health.getRtt() < 0 ? rtt : health.getRtt() * (1 - RTT_WEIGHT) + rtt * RTT_WEIGHT;
+        boolean full = maxPlayers > 0 && playerCount >= maxPlayers;
+        State state = full || averageRtt > this.proxy.getConfiguration().getHealthCheckDegradedRtt() ? State.DEGRADED : State.UP;
+        return new ServerHealth(state, averageRtt, playerCount, maxPlayers, 0, System.currentTimeMillis());
+    }
+
+    private ServerHealth onFailure(ServerHealth health) {
+        int failures = health.getConsecutiveFailures() + 1;
+        State state = failures >= this.proxy.getConfiguration().getHealthCheckDownFailures() ? State.DOWN : State.DEGRADED;
+        return new ServerHealth(state, health.getRtt(), health.getPlayerCount(), health.getMaxPlayers(), failures, health.getLastPongTime());
+    }
+}
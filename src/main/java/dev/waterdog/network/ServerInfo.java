@@ -18,7 +18,6 @@ package dev.waterdog.network;
 import com.nukkitx.network.raknet.RakNetPong;
 import dev.waterdog.ProxyServer;
 import lombok.ToString;
-import dev.waterdog.network.protocol.ProtocolConstants;
 import dev.waterdog.player.ProxiedPlayer;
 
 import java.net.InetSocketAddress;
@@ -27,13 +26,16 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * Base informative class for servers.
  * Every server registered to the Proxy has one instance of this class, holding its name aswell as its address(ip&port)
  * Also holds a list of all ProxiedPlayers connected.
  */
-@ToString(exclude = {"players"})
+@ToString(exclude = {"players", "health", "circuitBreaker"})
 public class ServerInfo {
 
     private final String serverName;
@@ -41,6 +43,9 @@ public class ServerInfo {
     private final InetSocketAddress publicAddress;
 
     private final Set<ProxiedPlayer> players = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger pendingConnections = new AtomicInteger();
+    private final AtomicReference<ServerHealth> health = new AtomicReference<>(ServerHealth.UNKNOWN);
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
 
     public ServerInfo(String serverName, InetSocketAddress address, InetSocketAddress publicAddress) {
         this.serverName = serverName;
@@ -57,8 +62,25 @@ public class ServerInfo {
      * @return CompletableFuture with RakNetPong.
      */
     public CompletableFuture<RakNetPong> ping(long timeout, TimeUnit unit) {
-        return ProxyServer.getInstance().bindClient(ProtocolConstants.getLatestProtocol()).thenCompose(client ->
-                client.getRakNet().ping(this.address, timeout, unit).whenComplete((pong, error) -> client.close()));
+        return ProxyServer.getInstance().getClientManager().ping(this.address, timeout, unit);
+    }
+
+    /**
+     * @return last health snapshot of the server. Snapshot is updated only if health checks are enabled.
+     */
+    public ServerHealth getHealth() {
+        return this.health.get();
+    }
+
+    void updateHealth(UnaryOperator<ServerHealth> updater) {
+        this.health.updateAndGet(updater);
+    }
+
+    /**
+     * @return circuit breaker tracking failed connections to the server.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker;
     }
 
     public void addPlayer(ProxiedPlayer player) {
@@ -75,6 +97,21 @@ public class ServerInfo {
         return this.players;
     }
 
+    public void addPendingConnection() {
+        this.pendingConnections.incrementAndGet();
+    }
+
+    public void removePendingConnection() {
+        this.pendingConnections.decrementAndGet();
+    }
+
+    /**
+     * @return count of players which are connecting to this server and are not counted in players yet.
+     */
+    public int getPendingConnectionCount() {
+        return this.pendingConnections.get();
+    }
+
     public String getServerName() {
         return this.serverName;
     }
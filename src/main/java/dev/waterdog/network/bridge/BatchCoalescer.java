@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.bridge;
+
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Merges batches sent to one session within short time window into single compressed frame.
+ * Order of packets is preserved. Window is started by first batch and is not extended by next batches.
+ * If only one batch arrives within the window and it is already compressed, it is forwarded without recompression.
+ */
+public class BatchCoalescer {
+
+    private final BedrockSession session;
+    private final long window;
+    /**
+     * Pending batch is flushed immediately once it exceeds this size.
+     */
+    private final int maxPendingBytes;
+
+    private ByteBuf pendingCompressed;
+    private CompositeByteBuf pendingBatch;
+    private boolean flushScheduled = false;
+
+    /**
+     * @param session target session.
+     * @param window coalescing window in milliseconds.
+     * @param maxPendingBytes size of pending batch in bytes after which it is flushed immediately.
+     */
+    public BatchCoalescer(BedrockSession session, long window, int maxPendingBytes) {
+        this.session = session;
+        this.window = window;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Packets sent directly to the session must not overtake coalesced batches.
+     * @return coalescer of batches sent to upstream session or null if they are not coalesced.
+     */
+    public static BatchCoalescer of(BedrockSession session) {
+        if (session == null || !(session.getBatchHandler() instanceof ProxyBatchBridge)) {
+            return null;
+        }
+
+        BatchCoalescer coalescer = ((ProxyBatchBridge) session.getBatchHandler()).getPlayer().getUpstreamCoalescer();
+        return coalescer != null && coalescer.session == session ? coalescer : null;
+    }
+
+    /**
+     * @param compressed compressed batch, buffer is not released.
+     */
+    public synchronized void addCompressed(ByteBuf compressed) {
+        if (this.pendingCompressed == null && this.pendingBatch == null) {
+            this.pendingCompressed = compressed.retainedSlice();
+            this.scheduleFlush();
+            return;
+        }
+
+        CompositeByteBuf batch = this.getPendingBatch();
+        ByteBuf decompressed = ByteBufAllocator.DEFAULT.ioBuffer(compressed.readableBytes() << 2);
+        try {
+            BatchSplicer.inflate(compressed.slice(), decompressed);
+        } catch (DataFormatException e) {
+            decompressed.release();
+            throw new IllegalStateException("Unable to inflate batch", e);
+        }
+        batch.addComponent(true, decompressed);
+        this.checkSize();
+    }
+
+    /**
+     * @param batch uncompressed batch which is released by coalescer.
+     */
+    public synchronized void addBatch(ByteBuf batch) {
+        this.getPendingBatch().addComponent(true, batch);
+        this.checkSize();
+    }
+
+    /**
+     * @param packet packet to be encoded, packet is released.
+     */
+    public void addPacket(BedrockPacket packet) {
+        this.addPackets(Collections.singletonList(packet));
+    }
+
+    /**
+     * @param packets packets to be encoded, packets are released.
+     */
+    public synchronized void addPackets(Collection<BedrockPacket> packets) {
+        CompositeByteBuf batch = this.getPendingBatch();
+        BedrockPacketCodec codec = this.session.getPacketCodec();
+        try {
+            for (BedrockPacket packet : packets) {
+                batch.addComponent(true, BatchSplicer.encodePacket(packet, codec, this.session));
+            }
+        } finally {
+            for (BedrockPacket packet : packets) {
+                ReferenceCountUtil.release(packet);
+            }
+        }
+        this.checkSize();
+    }
+
+    public synchronized void flush() {
+        this.flushScheduled = false;
+        if (this.session.isClosed()) {
+            this.release();
+            return;
+        }
+
+        if (this.pendingCompressed != null) {
+            ByteBuf compressed = this.pendingCompressed;
+            this.pendingCompressed = null;
+            try {
+                this.session.sendWrapped(compressed, this.session.isEncrypted());
+            } finally {
+                compressed.release();
+            }
+        }
+
+        if (this.pendingBatch != null) {
+            ByteBuf batch = this.pendingBatch;
+            this.pendingBatch = null;
+            try {
+                ByteBuf compressed = BatchSplicer.compress(batch, this.session.getCompressionLevel());
+                try {
+                    this.session.sendWrapped(compressed, this.session.isEncrypted());
+                } finally {
+                    compressed.release();
+                }
+            } finally {
+                batch.release();
+            }
+        }
+    }
+
+    public synchronized void release() {
+        if (this.pendingCompressed != null) {
+            this.pendingCompressed.release();
+            this.pendingCompressed = null;
+        }
+        if (this.pendingBatch != null) {
+            this.pendingBatch.release();
+            this.pendingBatch = null;
+        }
+    }
+
+    private CompositeByteBuf getPendingBatch() {
+        if (this.pendingBatch == null) {
+            this.pendingBatch = ByteBufAllocator.DEFAULT.compositeDirectBuffer(Integer.MAX_VALUE);
+        }
+
+        if (this.pendingCompressed != null) {
+            // Pending compressed batch has to be merged to keep packet order
+            ByteBuf compressed = this.pendingCompressed;
+            this.pendingCompressed = null;
+            ByteBuf decompressed = ByteBufAllocator.DEFAULT.ioBuffer(compressed.readableBytes() << 2);
+            try {
+                BatchSplicer.inflate(compressed, decompressed);
+                this.pendingBatch.addComponent(true, decompressed);
+            } catch (DataFormatException e) {
+                decompressed.release();
+                throw new IllegalStateException("Unable to inflate batch", e);
+            } finally {
+                compressed.release();
+            }
+        }
+
+        this.scheduleFlush();
+        return this.pendingBatch;
+    }
+
+    private void checkSize() {
+        if (this.pendingBatch != null && this.pendingBatch.readableBytes() >= this.maxPendingBytes) {
+            this.flush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!this.flushScheduled) {
+            this.flushScheduled = true;
+            this.session.getEventLoop().schedule(this::flush, this.window, TimeUnit.MILLISECONDS);
+        }
+    }
+}
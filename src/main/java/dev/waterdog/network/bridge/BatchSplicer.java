@@ -0,0 +1,343 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.bridge;
+
+import com.nukkitx.network.VarInts;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.packet.UnknownPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Builds outgoing batch from original batch by reusing bytes of untouched packets.
+ * Payloads of packets which were not decoded are reused as they were decompressed by the protocol library,
+ * packets which were changed or decoded are encoded again and cancelled packets are left out.
+ * Compressed batch is inflated again only if some untouched packet can not be encoded.
+ * Also provides batch compression helpers used by the bridges.
+ */
+public class BatchSplicer {
+
+    public static final byte UNCHANGED = 0;
+    public static final byte CHANGED = 1;
+    public static final byte CANCELLED = 2;
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<byte[]> CHUNK_BUFFER = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    /**
+     * @param compressed compressed batch as received, reader index must point to start of compressed data.
+     * @param packets packets decoded from the batch in same order.
+     * @param states state of each packet, one of UNCHANGED, CHANGED or CANCELLED.
+     * @param session session to which the batch will be sent.
+     * @return uncompressed batch or null if the original batch could not be matched with decoded packets.
+     */
+    public static ByteBuf splice(ByteBuf compressed, List<BedrockPacket> packets, byte[] states, BedrockSession session) {
+        try {
+            return spliceFrames(packets, states, session);
+        } catch (RuntimeException e) {
+            // Decoded packet could not be encoded again, original bytes are recovered from compressed batch
+        }
+
+        ByteBuf decompressed = ByteBufAllocator.DEFAULT.ioBuffer(compressed.readableBytes() << 2);
+        CompositeByteBuf batch = ByteBufAllocator.DEFAULT.compositeDirectBuffer(Integer.MAX_VALUE);
+        boolean success = false;
+        try {
+            inflate(compressed, decompressed);
+            success = spliceBatch(decompressed, batch, packets, states, session);
+            return success ? batch : null;
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            decompressed.release();
+            if (!success) {
+                batch.release();
+            }
+        }
+    }
+
+    /**
+     * @param batch uncompressed batch, its readable bytes are not consumed.
+     * @return new buffer with compressed batch.
+     */
+    public static ByteBuf compress(ByteBuf batch, int level) {
+        ByteBuf output = ByteBufAllocator.DEFAULT.ioBuffer(batch.readableBytes() >> 1);
+        try {
+            deflate(batch, output, level);
+        } catch (Exception e) {
+            output.release();
+            throw e;
+        }
+        return output;
+    }
+
+    private static ByteBuf spliceFrames(List<BedrockPacket> packets, byte[] states, BedrockSession session) {
+        BedrockPacketCodec codec = session.getPacketCodec();
+        CompositeByteBuf batch = ByteBufAllocator.DEFAULT.compositeDirectBuffer(Integer.MAX_VALUE);
+        try {
+            for (int i = 0; i < packets.size(); i++) {
+                if (states[i] != CANCELLED) {
+                    batch.addComponent(true, createFrame(packets.get(i), codec, session));
+                }
+            }
+        } catch (Exception e) {
+            batch.release();
+            throw e;
+        }
+        return batch;
+    }
+
+    /**
+     * Decoded packets are small in general, so encoding them again is cheaper than inflating whole batch.
+     */
+    private static ByteBuf createFrame(BedrockPacket packet, BedrockPacketCodec codec, BedrockSession session) {
+        if (packet instanceof UnknownPacket) {
+            return createFrame((UnknownPacket) packet);
+        }
+        return encodePacket(packet, codec, session);
+    }
+
+    /**
+     * @return length prefixed frame which shares payload of the packet.
+     */
+    private static ByteBuf createFrame(UnknownPacket packet) {
+        int header = 0;
+        header |= (packet.getPacketId() & 0x3ff);
+        header |= (packet.getSenderId() & 3) << 10;
+        header |= (packet.getClientId() & 3) << 12;
+
+        ByteBuf payload = packet.getPayload();
+        ByteBuf prefix = ByteBufAllocator.DEFAULT.ioBuffer(10);
+        VarInts.writeUnsignedInt(prefix, getVarIntSize(header) + payload.readableBytes());
+        VarInts.writeUnsignedInt(prefix, header);
+
+        CompositeByteBuf frame = ByteBufAllocator.DEFAULT.compositeDirectBuffer(2);
+        frame.addComponent(true, prefix);
+        frame.addComponent(true, payload.retainedSlice());
+        return frame;
+    }
+
+    /**
+     * @return size of length prefixed frame of the packet which was not decoded.
+     */
+    public static int getFrameSize(UnknownPacket packet) {
+        int header = (packet.getPacketId() & 0x3ff) | (packet.getSenderId() & 3) << 10 | (packet.getClientId() & 3) << 12;
+        int length = getVarIntSize(header) + packet.getPayload().readableBytes();
+        return getVarIntSize(length) + length;
+    }
+
+    private static int getVarIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static boolean spliceBatch(ByteBuf decompressed, CompositeByteBuf batch, List<BedrockPacket> packets, byte[] states, BedrockSession session) {
+        BedrockPacketCodec codec = session.getPacketCodec();
+        int runStart = -1;
+
+        for (int i = 0; i < packets.size(); i++) {
+            if (!decompressed.isReadable()) {
+                return false;
+            }
+
+            int frameStart = decompressed.readerIndex();
+            int length = VarInts.readUnsignedInt(decompressed);
+            if (length > decompressed.readableBytes()) {
+                return false;
+            }
+            decompressed.skipBytes(length);
+
+            if (states[i] == UNCHANGED) {
+                // Consecutive untouched packets are appended as one slice
+                if (runStart == -1) {
+                    runStart = frameStart;
+                }
+                continue;
+            }
+
+            if (runStart != -1) {
+                batch.addComponent(true, decompressed.retainedSlice(runStart, frameStart - runStart));
+                runStart = -1;
+            }
+
+            if (states[i] == CHANGED) {
+                batch.addComponent(true, encodePacket(packets.get(i), codec, session));
+            }
+        }
+
+        if (decompressed.isReadable()) {
+            // Some packets were not decoded, we can not tell which frames belong to our packets
+            return false;
+        }
+
+        if (runStart != -1) {
+            batch.addComponent(true, decompressed.retainedSlice(runStart, decompressed.writerIndex() - runStart));
+        }
+        return true;
+    }
+
+    /**
+     * Splits batch into frames of single packets.
+     * @param compressed compressed batch as received, reader index must point to start of compressed data.
+     * @return array of frames matching decoded packets, cancelled packets have null frame.
+     * Null is returned if the original batch could not be matched with decoded packets.
+     */
+    public static ByteBuf[] split(ByteBuf compressed, List<BedrockPacket> packets, byte[] states, BedrockSession session) {
+        try {
+            return splitFrames(packets, states, session);
+        } catch (RuntimeException e) {
+            // Decoded packet could not be encoded again, original bytes are recovered from compressed batch
+        }
+
+        ByteBuf decompressed = ByteBufAllocator.DEFAULT.ioBuffer(compressed.readableBytes() << 2);
+        ByteBuf[] frames = new ByteBuf[packets.size()];
+        boolean success = false;
+        try {
+            inflate(compressed, decompressed);
+            BedrockPacketCodec codec = session.getPacketCodec();
+
+            for (int i = 0; i < frames.length; i++) {
+                if (!decompressed.isReadable()) {
+                    return null;
+                }
+
+                int frameStart = decompressed.readerIndex();
+                int length = VarInts.readUnsignedInt(decompressed);
+                if (length > decompressed.readableBytes()) {
+                    return null;
+                }
+                decompressed.skipBytes(length);
+
+                if (states[i] == UNCHANGED) {
+                    frames[i] = decompressed.retainedSlice(frameStart, decompressed.readerIndex() - frameStart);
+                } else if (states[i] == CHANGED) {
+                    frames[i] = encodePacket(packets.get(i), codec, session);
+                }
+            }
+
+            success = !decompressed.isReadable();
+            return success ? frames : null;
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            decompressed.release();
+            if (!success) {
+                for (ByteBuf frame : frames) {
+                    if (frame != null) {
+                        frame.release();
+                    }
+                }
+            }
+        }
+    }
+
+    private static ByteBuf[] splitFrames(List<BedrockPacket> packets, byte[] states, BedrockSession session) {
+        BedrockPacketCodec codec = session.getPacketCodec();
+        ByteBuf[] frames = new ByteBuf[packets.size()];
+        try {
+            for (int i = 0; i < frames.length; i++) {
+                if (states[i] != CANCELLED) {
+                    frames[i] = createFrame(packets.get(i), codec, session);
+                }
+            }
+        } catch (Exception e) {
+            for (ByteBuf frame : frames) {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+            throw e;
+        }
+        return frames;
+    }
+
+    /**
+     * @return new buffer with length prefixed packet frame.
+     */
+    public static ByteBuf encodePacket(BedrockPacket packet, BedrockPacketCodec codec, BedrockSession session) {
+        ByteBuf packetBuffer = ByteBufAllocator.DEFAULT.ioBuffer();
+        ByteBuf frame = null;
+        try {
+            int header = 0;
+            header |= (codec.getId(packet) & 0x3ff);
+            header |= (packet.getSenderId() & 3) << 10;
+            header |= (packet.getClientId() & 3) << 12;
+            VarInts.writeUnsignedInt(packetBuffer, header);
+            codec.tryEncode(packetBuffer, packet, session);
+
+            frame = ByteBufAllocator.DEFAULT.ioBuffer(packetBuffer.readableBytes() + 5);
+            VarInts.writeUnsignedInt(frame, packetBuffer.readableBytes());
+            frame.writeBytes(packetBuffer);
+            return frame;
+        } catch (Exception e) {
+            if (frame != null) {
+                frame.release();
+            }
+            throw e;
+        } finally {
+            packetBuffer.release();
+        }
+    }
+
+    public static void inflate(ByteBuf input, ByteBuf output) throws DataFormatException {
+        Inflater inflater = INFLATER.get();
+        byte[] chunk = CHUNK_BUFFER.get();
+        inflater.reset();
+        inflater.setInput(input.nioBuffer());
+
+        while (!inflater.finished()) {
+            int length = inflater.inflate(chunk);
+            if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Compressed batch is truncated");
+            }
+            output.writeBytes(chunk, 0, length);
+        }
+    }
+
+    private static void deflate(ByteBuf input, ByteBuf output, int level) {
+        Deflater deflater = DEFLATER.get();
+        byte[] chunk = CHUNK_BUFFER.get();
+        deflater.reset();
+        deflater.setLevel(level);
+
+        for (ByteBuffer buffer : input.nioBuffers()) {
+            deflater.setInput(buffer);
+            while (!deflater.needsInput()) {
+                output.writeBytes(chunk, 0, deflater.deflate(chunk));
+            }
+        }
+
+        deflater.finish();
+        while (!deflater.finished()) {
+            output.writeBytes(chunk, 0, deflater.deflate(chunk));
+        }
+    }
+}
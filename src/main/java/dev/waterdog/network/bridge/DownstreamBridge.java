@@ -15,12 +15,10 @@
 
 package dev.waterdog.network.bridge;
 
-import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockSession;
-import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
-import dev.waterdog.network.rewrite.RewriteMaps;
-import dev.waterdog.utils.exceptions.CancelSignalException;
+import dev.waterdog.network.rewrite.BlockMap;
 import dev.waterdog.player.ProxiedPlayer;
+import dev.waterdog.utils.types.PacketHandler;
 
 public class DownstreamBridge extends ProxyBatchBridge {
 
@@ -29,16 +27,22 @@ public class DownstreamBridge extends ProxyBatchBridge {
     }
 
     @Override
-    public boolean handlePacket(BedrockPacket packet, BedrockPacketHandler handler) throws CancelSignalException {
-        boolean changed = super.handlePacket(packet, handler);
+    protected BatchCoalescer getCoalescer() {
+        return this.player.getUpstreamCoalescer();
+    }
 
-        RewriteMaps rewriteMaps = this.player.getRewriteMaps();
-        boolean rewroteBlock = rewriteMaps.getBlockMap() != null && rewriteMaps.getBlockMap().doRewrite(packet);
+    @Override
+    protected BlockMap getBlockMap() {
+        return this.player.getRewriteMaps().getBlockMap();
+    }
 
-        boolean pluginHandled = false;
-        if (this.player.getPluginDownstreamHandler() != null) {
-            pluginHandled = this.player.getPluginDownstreamHandler().handlePacket(packet);
-        }
-        return changed || rewroteBlock || pluginHandled;
+    @Override
+    protected EgressScheduler getEgressScheduler() {
+        return this.player.getEgressScheduler();
+    }
+
+    @Override
+    protected PacketHandler getPluginHandler() {
+        return this.player.getPluginDownstreamHandler();
     }
 }
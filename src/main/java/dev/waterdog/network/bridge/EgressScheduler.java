@@ -0,0 +1,544 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.bridge;
+
+import com.nukkitx.network.VarInts;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.packet.*;
+import dev.waterdog.network.protocol.PacketIds;
+import dev.waterdog.network.protocol.ProtocolVersion;
+import dev.waterdog.player.ProxiedPlayer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules batches sent to upstream by latency class of packets.
+ * Once batch contains bulk world data, the bulk packets and all packets after them are deferred
+ * and sent in parts limited by byte budget. Batch which fits to the budget while nothing is deferred is not split.
+ * Movement, interaction, UI and chat packets are sent ahead of deferred data, unless they target an entity
+ * which spawn or removal is still deferred. Relative order of deferred packets is kept.
+ * Under congestion, when deferred data exceeds threshold, only latest movement and state packet per entity is kept
+ * and sent with next part of deferred data. States of entities which spawn is still deferred are not coalesced
+ * and stay queued behind the spawn.
+ */
+public class EgressScheduler {
+
+    /**
+     * Delay between sending parts of deferred data in milliseconds.
+     */
+    public static final int PACING_INTERVAL = 10;
+
+    /**
+     * Movement, interaction, UI and chat packets which are sent ahead of bulk data.
+     */
+    private static final List<Class<? extends BedrockPacket>> PRIORITY_PACKETS = Arrays.asList(
+            TextPacket.class,
+            MoveEntityAbsolutePacket.class,
+            MovePlayerPacket.class,
+            EntityEventPacket.class,
+            UpdateAttributesPacket.class,
+            SetEntityMotionPacket.class,
+            AnimatePacket.class,
+            SetTitlePacket.class,
+            ModalFormRequestPacket.class,
+            MoveEntityDeltaPacket.class
+    );
+
+    /**
+     * Bulk world and game data packets.
+     */
+    private static final List<Class<? extends BedrockPacket>> BULK_PACKETS = Arrays.asList(
+            CraftingDataPacket.class,
+            LevelChunkPacket.class,
+            AvailableCommandsPacket.class,
+            AvailableEntityIdentifiersPacket.class,
+            BiomeDefinitionListPacket.class,
+            ClientCacheMissResponsePacket.class,
+            CreativeContentPacket.class
+    );
+
+    /**
+     * Entity state packets of which only latest one is needed under congestion.
+     */
+    private static final List<Class<? extends BedrockPacket>> STATE_PACKETS = Arrays.asList(
+            MoveEntityAbsolutePacket.class,
+            UpdateAttributesPacket.class,
+            SetEntityMotionPacket.class
+    );
+
+    /**
+     * Priority packets which target an entity with count of varint fields written before runtime id.
+     */
+    private static final Map<Class<? extends BedrockPacket>, Integer> ENTITY_ID_OFFSETS = new LinkedHashMap<>();
+    private static final long[] NO_ENTITIES = new long[0];
+
+    private static final Map<BedrockPacketCodec, PacketTypes> codecPacketTypes = new ConcurrentHashMap<>();
+
+    static {
+        ENTITY_ID_OFFSETS.put(MoveEntityAbsolutePacket.class, 0);
+        ENTITY_ID_OFFSETS.put(MovePlayerPacket.class, 0);
+        ENTITY_ID_OFFSETS.put(EntityEventPacket.class, 0);
+        ENTITY_ID_OFFSETS.put(UpdateAttributesPacket.class, 0);
+        ENTITY_ID_OFFSETS.put(SetEntityMotionPacket.class, 0);
+        // Runtime id follows action type
+        ENTITY_ID_OFFSETS.put(AnimatePacket.class, 1);
+        ENTITY_ID_OFFSETS.put(MoveEntityDeltaPacket.class, 0);
+    }
+
+    private final ProxiedPlayer player;
+    private final BedrockSession session;
+    private final int byteBudget;
+    private final int congestionThreshold;
+    /**
+     * Before 1.16.100 MoveEntityDeltaPacket contains relative coordinates and can not be dropped.
+     */
+    private final boolean coalesceDelta;
+
+    private final Queue<DeferredFrame> deferredFrames = new ArrayDeque<>();
+    /**
+     * Count of deferred frames which spawn or remove entity by its id.
+     */
+    private final Long2IntMap deferredEntities = new Long2IntOpenHashMap();
+    private final Map<StateKey, ByteBuf> latestStates = new LinkedHashMap<>();
+    private int deferredBytes = 0;
+    private boolean pacingScheduled = false;
+    private PacketTypes packetTypes;
+
+    /**
+     * @param session upstream session.
+     * @param byteBudget maximum size of uncompressed bulk data sent at once.
+     * @param congestionThreshold size of deferred data in bytes from which entity states are coalesced, 0 to disable.
+     */
+    public EgressScheduler(ProxiedPlayer player, BedrockSession session, int byteBudget, int congestionThreshold) {
+        this.player = player;
+        this.session = session;
+        this.byteBudget = byteBudget;
+        this.congestionThreshold = congestionThreshold;
+        this.coalesceDelta = player.getProtocol().getProtocol() >= ProtocolVersion.MINECRAFT_PE_1_16_100.getProtocol();
+    }
+
+    private boolean isPriorityPacket(int packetId) {
+        return this.packetTypes.priorityPackets.contains(packetId);
+    }
+
+    private boolean isBulkPacket(int packetId) {
+        return this.packetTypes.bulkPackets.contains(packetId);
+    }
+
+    /**
+     * @param compressed compressed batch as received, reader index must point to start of compressed data.
+     * @param packets packets decoded from the batch in same order.
+     * @param states state of each packet, one of BatchSplicer states.
+     * @return false if batch does not have to be scheduled and can be sent as usually.
+     */
+    public synchronized boolean schedule(ByteBuf compressed, List<BedrockPacket> packets, byte[] states) {
+        this.packetTypes = PacketTypes.of(this.session.getPacketCodec());
+        boolean deferring = !this.deferredFrames.isEmpty();
+        if (!deferring && this.latestStates.isEmpty() && !this.hasBulkPacket(packets, states)) {
+            return false;
+        }
+
+        int bulkSize = -1;
+        if (!deferring && this.latestStates.isEmpty()) {
+            bulkSize = this.getBulkSize(packets, states);
+            if (bulkSize >= 0 && bulkSize <= this.byteBudget) {
+                // Batch would be sent whole by first part anyway, so it is forwarded without splitting
+                return false;
+            }
+        }
+
+        ByteBuf[] frames = BatchSplicer.split(compressed, packets, states, this.session);
+        if (frames == null) {
+            if (!deferring && this.latestStates.isEmpty()) {
+                return false;
+            }
+            // We can not split batch, so whole batch is deferred to keep packet order
+            ByteBuf batch = BatchSplicer.splice(compressed, packets, states, this.session);
+            if (batch == null) {
+                return false;
+            }
+            this.addDeferred(batch, this.getEntityIds(packets, states));
+            this.schedulePacing();
+            return true;
+        }
+
+        if (bulkSize == -1 && !deferring && this.latestStates.isEmpty() && !this.exceedsBudget(packets, frames)) {
+            // Size of decoded packets is known only once they are encoded
+            releaseFrames(frames);
+            return false;
+        }
+
+        CompositeByteBuf immediate = ByteBufAllocator.DEFAULT.compositeDirectBuffer(Integer.MAX_VALUE);
+        for (int i = 0; i < frames.length; i++) {
+            ByteBuf frame = frames[i];
+            if (frame == null) {
+                continue;
+            }
+
+            BedrockPacket packet = packets.get(i);
+            int packetId = packet.getPacketId();
+            if (!deferring && this.isBulkPacket(packetId)) {
+                deferring = true;
+            }
+
+            if (deferring && (!this.isPriorityPacket(packetId) || this.dependsOnDeferred(packetId, frame))) {
+                long entityId = getEntityId(packet);
+                this.addDeferred(frame, entityId == -1 ? NO_ENTITIES : new long[]{entityId});
+            } else if (this.isStatePacket(packetId) && (this.isCongested() || !this.latestStates.isEmpty())) {
+                // While coalesced states are pending, newer states must not be sent before them
+                this.putState(packetId, frame);
+            } else {
+                immediate.addComponent(true, frame);
+            }
+        }
+
+        if (immediate.isReadable()) {
+            this.sendBatch(immediate);
+        } else {
+            immediate.release();
+        }
+
+        this.schedulePacing();
+        return true;
+    }
+
+    private boolean hasBulkPacket(List<BedrockPacket> packets, byte[] states) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] != BatchSplicer.CANCELLED && this.isBulkPacket(packets.get(i).getPacketId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return size of frames from first bulk packet on or -1 if some of them was decoded and its size is not known.
+     */
+    private int getBulkSize(List<BedrockPacket> packets, byte[] states) {
+        boolean bulk = false;
+        int bytes = 0;
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == BatchSplicer.CANCELLED) {
+                continue;
+            }
+
+            BedrockPacket packet = packets.get(i);
+            if (!bulk && this.isBulkPacket(packet.getPacketId())) {
+                bulk = true;
+            }
+            if (!bulk) {
+                continue;
+            }
+            if (!(packet instanceof UnknownPacket)) {
+                return -1;
+            }
+            bytes += BatchSplicer.getFrameSize((UnknownPacket) packet);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return if frames from first bulk packet on are larger than the byte budget.
+     */
+    private boolean exceedsBudget(List<BedrockPacket> packets, ByteBuf[] frames) {
+        boolean bulk = false;
+        int bytes = 0;
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] == null) {
+                continue;
+            }
+            if (!bulk && this.isBulkPacket(packets.get(i).getPacketId())) {
+                bulk = true;
+            }
+            if (bulk && (bytes += frames[i].readableBytes()) > this.byteBudget) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void releaseFrames(ByteBuf[] frames) {
+        for (ByteBuf frame : frames) {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * @return if the priority packet targets an entity which spawn or removal is still deferred.
+     */
+    private boolean dependsOnDeferred(int packetId, ByteBuf frame) {
+        int offset = this.packetTypes.entityIdOffsets.get(packetId);
+        if (offset == -1 || this.deferredEntities.isEmpty()) {
+            return false;
+        }
+
+        ByteBuf reader = frame.duplicate();
+        VarInts.readUnsignedInt(reader); // Frame length
+        VarInts.readUnsignedInt(reader); // Packet header
+        for (int i = 0; i < offset; i++) {
+            VarInts.readUnsignedLong(reader);
+        }
+        return this.deferredEntities.containsKey(VarInts.readUnsignedLong(reader));
+    }
+
+    /**
+     * Unique id of removed entity is matched against runtime ids, as servers assign both same value.
+     * @return id of entity spawned or removed by the packet or -1.
+     */
+    private static long getEntityId(BedrockPacket packet) {
+        if (packet instanceof AddEntityPacket) {
+            return ((AddEntityPacket) packet).getRuntimeEntityId();
+        } else if (packet instanceof AddPlayerPacket) {
+            return ((AddPlayerPacket) packet).getRuntimeEntityId();
+        } else if (packet instanceof AddItemEntityPacket) {
+            return ((AddItemEntityPacket) packet).getRuntimeEntityId();
+        } else if (packet instanceof AddPaintingPacket) {
+            return ((AddPaintingPacket) packet).getRuntimeEntityId();
+        } else if (packet instanceof RemoveEntityPacket) {
+            return ((RemoveEntityPacket) packet).getUniqueEntityId();
+        }
+        return -1;
+    }
+
+    private long[] getEntityIds(List<BedrockPacket> packets, byte[] states) {
+        LongArrayList entityIds = new LongArrayList();
+        for (int i = 0; i < states.length; i++) {
+            long entityId;
+            if (states[i] != BatchSplicer.CANCELLED && (entityId = getEntityId(packets.get(i))) != -1) {
+                entityIds.add(entityId);
+            }
+        }
+        return entityIds.isEmpty() ? NO_ENTITIES : entityIds.toLongArray();
+    }
+
+    private void addDeferred(ByteBuf frame, long[] entityIds) {
+        this.deferredFrames.add(new DeferredFrame(frame, entityIds));
+        this.deferredBytes += frame.readableBytes();
+        for (long entityId : entityIds) {
+            this.deferredEntities.put(entityId, this.deferredEntities.get(entityId) + 1);
+        }
+    }
+
+    private ByteBuf pollDeferred() {
+        DeferredFrame deferred = this.deferredFrames.poll();
+        this.deferredBytes -= deferred.frame.readableBytes();
+        for (long entityId : deferred.entityIds) {
+            int count = this.deferredEntities.get(entityId) - 1;
+            if (count <= 0) {
+                this.deferredEntities.remove(entityId);
+            } else {
+                this.deferredEntities.put(entityId, count);
+            }
+        }
+        return deferred.frame;
+    }
+
+    private boolean isCongested() {
+        return this.congestionThreshold > 0 && this.deferredBytes >= this.congestionThreshold;
+    }
+
+    private boolean isStatePacket(int packetId) {
+        return this.packetTypes.statePackets.contains(packetId) || (this.coalesceDelta && packetId == this.packetTypes.moveEntityDelta);
+    }
+
+    /**
+     * Replaces previous state packet of same type for same entity.
+     */
+    private void putState(int packetId, ByteBuf frame) {
+        ByteBuf reader = frame.duplicate();
+        VarInts.readUnsignedInt(reader); // Frame length
+        VarInts.readUnsignedInt(reader); // Packet header
+        long runtimeId = VarInts.readUnsignedLong(reader);
+        // Delta packet with other flags changes other properties, so it can not replace this one
+        int flags = packetId == this.packetTypes.moveEntityDelta ? reader.readUnsignedShortLE() : 0;
+
+        StateKey key = new StateKey(runtimeId, packetId, flags);
+        ByteBuf previous = this.latestStates.remove(key);
+        if (previous != null) {
+            previous.release();
+        }
+        this.latestStates.put(key, frame);
+    }
+
+    private void schedulePacing() {
+        if (this.pacingScheduled || (this.deferredFrames.isEmpty() && this.latestStates.isEmpty())) {
+            return;
+        }
+        this.pacingScheduled = true;
+        this.session.getEventLoop().execute(this::sendDeferred);
+    }
+
+    /**
+     * Sends next part of deferred data. At least one frame is sent even if it exceeds the budget.
+     */
+    private synchronized void sendDeferred() {
+        this.pacingScheduled = false;
+        if (this.session.isClosed()) {
+            this.release();
+            return;
+        }
+
+        CompositeByteBuf batch = ByteBufAllocator.DEFAULT.compositeDirectBuffer(Integer.MAX_VALUE);
+        // Coalesced states are sent ahead of deferred data and are not counted to budget.
+        // They never target entity with deferred spawn or removal, as such states are deferred in order.
+        for (ByteBuf frame : this.latestStates.values()) {
+            batch.addComponent(true, frame);
+        }
+        this.latestStates.clear();
+        int stateBytes = batch.readableBytes();
+
+        while (!this.deferredFrames.isEmpty()) {
+            ByteBuf frame = this.deferredFrames.peek().frame;
+            if (batch.readableBytes() > stateBytes && batch.readableBytes() - stateBytes + frame.readableBytes() > this.byteBudget) {
+                break;
+            }
+            batch.addComponent(true, this.pollDeferred());
+        }
+
+        if (batch.isReadable()) {
+            this.sendBatch(batch);
+        } else {
+            batch.release();
+        }
+
+        if (!this.deferredFrames.isEmpty() || !this.latestStates.isEmpty()) {
+            this.pacingScheduled = true;
+            this.session.getEventLoop().schedule(this::sendDeferred, PACING_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param batch uncompressed batch which is released once sent.
+     */
+    private void sendBatch(ByteBuf batch) {
+        BatchCoalescer coalescer = this.player.getUpstreamCoalescer();
+        if (coalescer != null) {
+            coalescer.addBatch(batch);
+            return;
+        }
+
+        try {
+            ByteBuf compressed = BatchSplicer.compress(batch, this.session.getCompressionLevel());
+            try {
+                this.session.sendWrapped(compressed, this.session.isEncrypted());
+            } finally {
+                compressed.release();
+            }
+        } finally {
+            batch.release();
+        }
+    }
+
+    public synchronized void release() {
+        DeferredFrame deferred;
+        while ((deferred = this.deferredFrames.poll()) != null) {
+            deferred.frame.release();
+        }
+        this.deferredBytes = 0;
+        this.deferredEntities.clear();
+
+        for (ByteBuf state : this.latestStates.values()) {
+            state.release();
+        }
+        this.latestStates.clear();
+    }
+
+    /**
+     * Packet ids resolved from codec of the session.
+     */
+    private static class PacketTypes {
+        private final IntSet priorityPackets;
+        private final IntSet bulkPackets;
+        private final IntSet statePackets;
+        private final int moveEntityDelta;
+        private final Int2IntMap entityIdOffsets = new Int2IntOpenHashMap();
+
+        private PacketTypes(BedrockPacketCodec codec) {
+            this.priorityPackets = PacketIds.getIds(codec, PRIORITY_PACKETS);
+            this.bulkPackets = PacketIds.getIds(codec, BULK_PACKETS);
+            this.statePackets = PacketIds.getIds(codec, STATE_PACKETS);
+            this.moveEntityDelta = PacketIds.getId(codec, MoveEntityDeltaPacket.class);
+
+            this.entityIdOffsets.defaultReturnValue(-1);
+            for (Map.Entry<Class<? extends BedrockPacket>, Integer> entry : ENTITY_ID_OFFSETS.entrySet()) {
+                int packetId = PacketIds.getId(codec, entry.getKey());
+                if (packetId != -1) {
+                    this.entityIdOffsets.put(packetId, entry.getValue().intValue());
+                }
+            }
+        }
+
+        private static PacketTypes of(BedrockPacketCodec codec) {
+            return codecPacketTypes.computeIfAbsent(codec, PacketTypes::new);
+        }
+    }
+
+    private static class DeferredFrame {
+        private final ByteBuf frame;
+        private final long[] entityIds;
+
+        private DeferredFrame(ByteBuf frame, long[] entityIds) {
+            this.frame = frame;
+            this.entityIds = entityIds;
+        }
+    }
+
+    private static class StateKey {
+        private final long runtimeId;
+        private final int packetId;
+        private final int flags;
+
+        private StateKey(long runtimeId, int packetId, int flags) {
+            this.runtimeId = runtimeId;
+            this.packetId = packetId;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StateKey)) {
+                return false;
+            }
+            StateKey other = (StateKey) obj;
+            return this.runtimeId == other.runtimeId && this.packetId == other.packetId && this.flags == other.flags;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int) (this.runtimeId ^ (this.runtimeId >>> 32));
+            hash = 31 * hash + this.packetId;
+            return 31 * hash + this.flags;
+        }
+    }
+}
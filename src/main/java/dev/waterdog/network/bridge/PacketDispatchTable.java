@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.bridge;
+
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketType;
+import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
+import dev.waterdog.network.protocol.PacketInterest;
+import dev.waterdog.network.rewrite.BlockMap;
+import dev.waterdog.network.rewrite.EntityMap;
+import dev.waterdog.network.rewrite.EntityTracker;
+import dev.waterdog.utils.types.PacketHandler;
+
+import java.util.Arrays;
+
+/**
+ * Per session table of handler stages which are interested in packet type.
+ * Table is indexed by packet type and filled lazily when packet type is seen for the first time.
+ * Whole table is rebuilt if class of any handler used by stages changes.
+ */
+public class PacketDispatchTable {
+
+    public static final int SESSION_HANDLER = 1;
+    public static final int ENTITY_MAP = 1 << 1;
+    public static final int ENTITY_TRACKER = 1 << 2;
+    public static final int BLOCK_MAP = 1 << 3;
+    public static final int PLUGIN_HANDLER = 1 << 4;
+
+    private static final int UNRESOLVED = -1;
+
+    private final int[] stages = new int[BedrockPacketType.values().length];
+
+    private Class<?> sessionHandlerClass;
+    private Class<?> blockMapClass;
+    private Class<?> pluginHandlerClass;
+
+    public PacketDispatchTable() {
+        Arrays.fill(this.stages, UNRESOLVED);
+    }
+
+    /**
+     * @return bit mask of stages which should handle the packet.
+     */
+    public int getStages(BedrockPacket packet, BedrockPacketHandler sessionHandler, BlockMap blockMap, PacketHandler pluginHandler) {
+        Class<?> sessionHandlerClass = sessionHandler == null ? null : sessionHandler.getClass();
+        Class<?> blockMapClass = blockMap == null ? null : blockMap.getClass();
+        Class<?> pluginHandlerClass = pluginHandler == null ? null : pluginHandler.getClass();
+
+        if (sessionHandlerClass != this.sessionHandlerClass || blockMapClass != this.blockMapClass || pluginHandlerClass != this.pluginHandlerClass) {
+            this.sessionHandlerClass = sessionHandlerClass;
+            this.blockMapClass = blockMapClass;
+            this.pluginHandlerClass = pluginHandlerClass;
+            Arrays.fill(this.stages, UNRESOLVED);
+        }
+
+        int index = packet.getPacketType().ordinal();
+        int stages = this.stages[index];
+        if (stages == UNRESOLVED) {
+            this.stages[index] = stages = this.resolveStages(packet.getClass());
+        }
+        return stages;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int resolveStages(Class<? extends BedrockPacket> packetClass) {
+        int stages = 0;
+        if (this.sessionHandlerClass != null && PacketInterest.of((Class<? extends BedrockPacketHandler>) this.sessionHandlerClass).contains(packetClass)) {
+            stages |= SESSION_HANDLER;
+        }
+        if (PacketInterest.of(EntityMap.class).contains(packetClass)) {
+            stages |= ENTITY_MAP;
+        }
+        if (PacketInterest.of(EntityTracker.class).contains(packetClass)) {
+            stages |= ENTITY_TRACKER;
+        }
+        if (this.blockMapClass != null && PacketInterest.of((Class<? extends BedrockPacketHandler>) this.blockMapClass).contains(packetClass)) {
+            stages |= BLOCK_MAP;
+        }
+        if (this.pluginHandlerClass != null && PacketInterest.isInterested((Class<? extends BedrockPacketHandler>) this.pluginHandlerClass, packetClass)) {
+            stages |= PLUGIN_HANDLER;
+        }
+        return stages;
+    }
+}
@@ -19,8 +19,12 @@ import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockSession;
 import com.nukkitx.protocol.bedrock.handler.BatchHandler;
 import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
+import com.nukkitx.protocol.bedrock.packet.MobEffectPacket;
 import com.nukkitx.protocol.bedrock.packet.UnknownPacket;
+import dev.waterdog.network.rewrite.BlockMap;
+import dev.waterdog.network.rewrite.RewriteMaps;
 import dev.waterdog.utils.exceptions.CancelSignalException;
+import dev.waterdog.utils.types.PacketHandler;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.ReferenceCountUtil;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
@@ -34,6 +38,7 @@ public abstract class ProxyBatchBridge implements BatchHandler {
     protected final BedrockSession session;
     protected final ProxiedPlayer player;
 
+    protected final PacketDispatchTable dispatchTable = new PacketDispatchTable();
     protected boolean trackEntities = true;
 
     public ProxyBatchBridge(ProxiedPlayer player, BedrockSession session) {
@@ -41,39 +46,117 @@ public abstract class ProxyBatchBridge implements BatchHandler {
         this.player = player;
     }
 
+    public ProxiedPlayer getPlayer() {
+        return this.player;
+    }
+
     @Override
     public void handle(BedrockSession session, ByteBuf buf, Collection<BedrockPacket> packets) {
         BedrockPacketHandler handler = session.getPacketHandler();
         List<BedrockPacket> allPackets = new ObjectArrayList<>();
+        List<BedrockPacket> decodedPackets = new ObjectArrayList<>(packets);
+        byte[] states = new byte[decodedPackets.size()];
         boolean changed = false;
 
-        for (BedrockPacket packet : packets) {
+        for (int i = 0; i < states.length; i++) {
+            BedrockPacket packet = decodedPackets.get(i);
             try {
                 if ((packet instanceof UnknownPacket) && this.handleUnknownPacket((UnknownPacket) packet) ||
                         !(packet instanceof UnknownPacket) && this.handlePacket(packet, handler)) {
+                    states[i] = BatchSplicer.CHANGED;
                     changed = true;
                 }
                 allPackets.add(packet);
             } catch (CancelSignalException e) {
+                states[i] = BatchSplicer.CANCELLED;
                 // In this case packet won't be released by protocol lib
                 ReferenceCountUtil.release(packet);
             }
         }
 
+        EgressScheduler scheduler = this.getEgressScheduler();
+        if (scheduler != null && !allPackets.isEmpty()) {
+            buf.resetReaderIndex();
+            if (scheduler.schedule(buf, decodedPackets, states)) {
+                this.deallocatePackets(allPackets);
+                return;
+            }
+        }
+
         if (!allPackets.isEmpty() && (changed || allPackets.size() != packets.size())) {
-            this.session.sendWrapped(allPackets, this.session.isEncrypted());
+            buf.resetReaderIndex();
+            ByteBuf batch = BatchSplicer.splice(buf, decodedPackets, states, this.session);
+            if (batch == null) {
+                // Fallback to encoding whole batch
+                this.sendPackets(allPackets);
+                return;
+            }
+
+            this.deallocatePackets(allPackets);
+            this.sendBatch(batch);
             return;
         }
 
         if (!changed && allPackets.size() == packets.size()) {
-            buf.resetReaderIndex(); // Set reader index to position where payload is decrypted.
-            this.session.sendWrapped(buf, this.session.isEncrypted());
+            this.forwardCompressed(buf);
         }
 
         // Packets from array aren't used so we can deallocate whole.
         this.deallocatePackets(allPackets);
     }
 
+    /**
+     * Forwards batch which was not changed without recompressing it.
+     * Compressed frame is sent as it was received, only encryption of target session is applied.
+     * Batch is therefore compressed with level of the source session and not the target one.
+     * This is valid because both sessions use same protocol version and so same batch compression format.
+     * @param buf decrypted but still compressed batch payload
+     */
+    protected void forwardCompressed(ByteBuf buf) {
+        buf.resetReaderIndex(); // Set reader index to position where payload is decrypted.
+        BatchCoalescer coalescer = this.getCoalescer();
+        if (coalescer == null) {
+            this.session.sendWrapped(buf, this.session.isEncrypted());
+        } else {
+            coalescer.addCompressed(buf);
+        }
+    }
+
+    /**
+     * Encodes and sends packets. Packets are released once sent.
+     */
+    protected void sendPackets(Collection<BedrockPacket> packets) {
+        BatchCoalescer coalescer = this.getCoalescer();
+        if (coalescer == null) {
+            this.session.sendWrapped(packets, this.session.isEncrypted());
+        } else {
+            coalescer.addPackets(packets);
+        }
+    }
+
+    /**
+     * Compresses and sends uncompressed batch.
+     * @param batch uncompressed batch which is released once sent
+     */
+    protected void sendBatch(ByteBuf batch) {
+        BatchCoalescer coalescer = this.getCoalescer();
+        if (coalescer != null) {
+            coalescer.addBatch(batch);
+            return;
+        }
+
+        try {
+            ByteBuf compressed = BatchSplicer.compress(batch, this.session.getCompressionLevel());
+            try {
+                this.session.sendWrapped(compressed, this.session.isEncrypted());
+            } finally {
+                compressed.release();
+            }
+        } finally {
+            batch.release();
+        }
+    }
+
     protected void deallocatePackets(Collection<BedrockPacket> packets) {
         for (BedrockPacket packet : packets) {
             int refCnt = ReferenceCountUtil.refCnt(packet);
@@ -84,29 +167,83 @@ public abstract class ProxyBatchBridge implements BatchHandler {
     }
 
     /**
+     * Packet is passed only to stages which are interested in its type.
      * @return if packet was changed
      * @throws CancelSignalException if we do not want to send packet
      */
     public boolean handlePacket(BedrockPacket packet, BedrockPacketHandler handler) throws CancelSignalException {
+        RewriteMaps rewriteMaps = this.player.getRewriteMaps();
+        BlockMap blockMap = this.getBlockMap();
+        PacketHandler pluginHandler = this.getPluginHandler();
+
+        int stages = this.dispatchTable.getStages(packet, handler, blockMap, pluginHandler);
+        if (stages == 0) {
+            return false;
+        }
+
         boolean handled = false, canceled = false;
-        try {
-            handled = packet.handle(handler);
-        } catch (CancelSignalException e) {
-            canceled = true;
+        if ((stages & PacketDispatchTable.SESSION_HANDLER) != 0) {
+            try {
+                handled = packet.handle(handler);
+            } catch (CancelSignalException e) {
+                canceled = true;
+            }
         }
 
-        boolean changed = this.player.getRewriteMaps().getEntityMap().doRewrite(packet) || handled;
+        boolean changed = (stages & PacketDispatchTable.ENTITY_MAP) != 0 && rewriteMaps.getEntityMap().doRewrite(packet) || handled;
         if (!changed && canceled) {
             throw CancelSignalException.CANCEL;
         }
 
-        if (this.trackEntities) {
-            this.player.getRewriteMaps().getEntityTracker().trackEntity(packet);
+        // Effects of the player are tracked by every bridge, so the next transfer can remove them
+        if ((stages & PacketDispatchTable.ENTITY_TRACKER) != 0 && (this.trackEntities || packet instanceof MobEffectPacket)) {
+            rewriteMaps.getEntityTracker().trackEntity(packet);
+        }
+
+        if ((stages & PacketDispatchTable.BLOCK_MAP) != 0 && blockMap.doRewrite(packet)) {
+            changed = true;
+        }
+
+        if ((stages & PacketDispatchTable.PLUGIN_HANDLER) != 0 && pluginHandler.handlePacket(packet)) {
+            changed = true;
         }
         return changed;
     }
 
-    public boolean handleUnknownPacket(UnknownPacket packet){
-        return false;
+    /**
+     * @return coalescer of batches sent by this bridge or null.
+     */
+    protected BatchCoalescer getCoalescer() {
+        return null;
+    }
+
+    /**
+     * @return block map used to rewrite packets passing this bridge or null.
+     */
+    protected BlockMap getBlockMap() {
+        return null;
+    }
+
+    /**
+     * @return scheduler of batches passing this bridge or null.
+     */
+    protected EgressScheduler getEgressScheduler() {
+        return null;
+    }
+
+    /**
+     * @return plugin handler of packets passing this bridge or null.
+     */
+    protected PacketHandler getPluginHandler() {
+        return null;
+    }
+
+    /**
+     * Packets which are not decoded by codec can be still rewritten using raw payload.
+     * @return if packet was changed
+     * @throws CancelSignalException if we do not want to send packet
+     */
+    public boolean handleUnknownPacket(UnknownPacket packet) throws CancelSignalException {
+        return this.player.getRewriteMaps().getRawEntityMap().doRewrite(packet);
     }
 }
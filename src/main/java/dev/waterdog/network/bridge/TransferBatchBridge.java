@@ -16,13 +16,19 @@
 package dev.waterdog.network.bridge;
 
 import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
 import com.nukkitx.protocol.bedrock.BedrockPacketType;
 import com.nukkitx.protocol.bedrock.BedrockSession;
+import com.nukkitx.protocol.bedrock.handler.BatchHandler;
 import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
 import com.nukkitx.protocol.bedrock.packet.UnknownPacket;
+import dev.waterdog.network.ServerInfo;
+import dev.waterdog.network.session.PendingConnection;
+import dev.waterdog.network.session.PreConnection;
+import dev.waterdog.utils.ProxyConfig;
 import dev.waterdog.utils.exceptions.CancelSignalException;
+import dev.waterdog.utils.types.TranslationContainer;
 import io.netty.buffer.ByteBuf;
-import io.netty.util.ReferenceCountUtil;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import dev.waterdog.player.ProxiedPlayer;
 
@@ -31,22 +37,65 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TransferBatchBridge extends ProxyBatchBridge {
 
-    private final List<BedrockPacket> packetQueue = new ObjectArrayList<>();
+    private final TransferQueue transferQueue;
+    private final boolean fallbackOnOverflow;
     private final AtomicBoolean hasStartGame = new AtomicBoolean(false);
+    private boolean overflowed = false;
+
+    /**
+     * Batches starting with the one which contains StartGamePacket are held while this is set.
+     */
+    private boolean holdStartGame;
+    private final List<HeldBatch> heldBatches = new ObjectArrayList<>();
 
     public TransferBatchBridge(ProxiedPlayer player, BedrockSession session) {
+        this(player, session, false);
+    }
+
+    /**
+     * @param holdStartGame if transfer should not be completed until held batches are released.
+     */
+    public TransferBatchBridge(ProxiedPlayer player, BedrockSession session, boolean holdStartGame) {
         super(player, session);
         this.trackEntities = false;
+        this.holdStartGame = holdStartGame;
+
+        ProxyConfig config = player.getProxy().getConfiguration();
+        this.transferQueue = new TransferQueue(session.getPacketCodec(), config.getTransferQueueBudget(), config.getTransferQueueGlobalBudget());
+        this.fallbackOnOverflow = config.isTransferQueueFallback();
     }
 
     @Override
     public void handle(BedrockSession session, ByteBuf buf, Collection<BedrockPacket> packets) {
+        BatchHandler batchHandler = session.getBatchHandler();
+        if (batchHandler != this && batchHandler instanceof DownstreamBridge) {
+            // Transfer completed while replaying held batches, rest belongs to the new bridge
+            batchHandler.handle(session, buf, packets);
+            return;
+        }
+
+        if (this.holdBatch(session, buf, packets)) {
+            return;
+        }
+
         super.handle(session, buf, packets);
+        if (!this.hasStartGame.get() || !(session.getBatchHandler() instanceof DownstreamBridge)) {
+            if (session.isClosed()) {
+                this.transferQueue.release();
+            }
+            return;
+        }
+
+        if (this.overflowed) {
+            // Queue was released and transfer aborted once it overflowed
+            return;
+        }
 
         // Send queued packets to upstream if new bridge is used
-        if (this.hasStartGame.get() && (session.getBatchHandler() instanceof DownstreamBridge) && !this.packetQueue.isEmpty()){
-            this.session.sendWrapped(this.packetQueue, this.session.isEncrypted());
-            this.packetQueue.clear();
+        if (!this.transferQueue.isEmpty()) {
+            this.player.getLogger().debug("[" + this.player.getName() + "] Flushing transfer queue: " + this.transferQueue.getPacketCount() +
+                    " packets, " + this.transferQueue.getBytes() + " bytes, " + this.transferQueue.getReplacedCount() + " replaced, " + this.transferQueue.getDroppedCount() + " dropped");
+            this.sendBatch(this.transferQueue.drain());
         }
     }
 
@@ -61,20 +110,177 @@ public class TransferBatchBridge extends ProxyBatchBridge {
         // Packets after StartGamePacket should be queued
         // Ignore LevelEvent packet to prevent massive amounts of packets in queue
         if (!isStartGame && this.hasStartGame.get() && packet.getPacketType() != BedrockPacketType.LEVEL_EVENT){
-            this.packetQueue.add(ReferenceCountUtil.retain(packet));
+            this.queuePacket(packet);
         }
         throw CancelSignalException.CANCEL;
     }
 
     @Override
-    public boolean handleUnknownPacket(UnknownPacket packet) {
+    public boolean handleUnknownPacket(UnknownPacket packet) throws CancelSignalException {
         if (this.hasStartGame.get()) {
-            this.packetQueue.add(packet.retain());
+            super.handleUnknownPacket(packet);
+            this.queuePacket(packet);
         }
         throw CancelSignalException.CANCEL;
     }
 
-    public List<BedrockPacket> getPacketQueue() {
-        return this.packetQueue;
+    /**
+     * Held batches are counted to the transfer queue budgets. Prepared connection is closed if they do not fit.
+     */
+    private boolean holdBatch(BedrockSession session, ByteBuf buf, Collection<BedrockPacket> packets) {
+        synchronized (this) {
+            if (!this.holdStartGame || (this.heldBatches.isEmpty() && !this.hasStartGamePacket(packets))) {
+                return false;
+            }
+
+            if (!this.overflowed && this.transferQueue.hold(getHeldSize(buf, packets))) {
+                // Packets are released by the bridge, so only batch buffer has to be retained
+                this.heldBatches.add(new HeldBatch(session, buf.retain(), new ObjectArrayList<>(packets)));
+                return true;
+            }
+            this.overflowed = true;
+        }
+
+        this.deallocatePackets(packets);
+        PreConnection preConnection = this.player.getPreConnection();
+        if (preConnection != null && preConnection.getBridge() == this && this.player.clearPreConnection(preConnection)) {
+            this.transferQueue.markOverflowed();
+            preConnection.close();
+            this.player.getLogger().debug("[" + this.player.getName() + "] Prepared connection to " + preConnection.getInfo().getServerName() + " exceeded transfer queue budget");
+            return true;
+        }
+
+        // Connection was already used by transfer, player stays on current server
+        PendingConnection pendingConnection = this.player.getPendingConnection();
+        if (pendingConnection != null && pendingConnection.getBridge() == this) {
+            this.transferQueue.markOverflowed();
+            pendingConnection.close();
+            this.player.setPendingConnection(null);
+            this.player.sendMessage(new TranslationContainer("waterdog.downstream.transfer.failed", pendingConnection.getInfo().getServerName(), "Transfer queue overflow"));
+        }
+        return true;
+    }
+
+    /**
+     * Size of decoded packets is not known, so they are counted by size of compressed batch.
+     * @return size of retained batch and payloads of packets which were not decoded.
+     */
+    private static int getHeldSize(ByteBuf buf, Collection<BedrockPacket> packets) {
+        int size = buf.readableBytes();
+        for (BedrockPacket packet : packets) {
+            if (packet instanceof UnknownPacket) {
+                size += ((UnknownPacket) packet).getPayload().readableBytes();
+            }
+        }
+        return size;
+    }
+
+    private boolean hasStartGamePacket(Collection<BedrockPacket> packets) {
+        for (BedrockPacket packet : packets) {
+            if (packet.getPacketType() == BedrockPacketType.START_GAME) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles held batches on event loop of downstream session and stops holding next batches.
+     */
+    public void releaseHeldBatches() {
+        BedrockSession downstream;
+        synchronized (this) {
+            if (this.heldBatches.isEmpty()) {
+                this.holdStartGame = false;
+                return;
+            }
+            downstream = this.heldBatches.get(0).session;
+        }
+
+        downstream.getEventLoop().execute(() -> {
+            List<HeldBatch> batches;
+            synchronized (this) {
+                this.holdStartGame = false;
+                batches = new ObjectArrayList<>(this.heldBatches);
+                this.heldBatches.clear();
+                this.transferQueue.releaseHeld();
+            }
+
+            for (HeldBatch batch : batches) {
+                try {
+                    this.handle(batch.session, batch.buf, batch.packets);
+                } finally {
+                    batch.buf.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Discards held batches and queued packets. Called once the downstream session or pending connection is closed.
+     */
+    public synchronized void release() {
+        for (HeldBatch batch : this.heldBatches) {
+            batch.buf.release();
+            this.deallocatePackets(batch.packets);
+        }
+        this.heldBatches.clear();
+        this.transferQueue.release();
+    }
+
+    /**
+     * Packet is encoded right away so decoded packet can be released.
+     * Once the queue is over budget, redundant effect packets are dropped and transfer is aborted
+     * when other packet does not fit. If fallback policy is used, transfer is aborted on first packet which does not fit.
+     */
+    private void queuePacket(BedrockPacket packet) {
+        if (this.overflowed) {
+            return;
+        }
+
+        BedrockPacketCodec codec = this.session.getPacketCodec();
+        ByteBuf frame = BatchSplicer.encodePacket(packet, codec, this.session);
+        if (this.transferQueue.add(frame)) {
+            return;
+        }
+
+        if (!this.fallbackOnOverflow && this.transferQueue.isRedundantPacket(codec.getId(packet))) {
+            this.transferQueue.markDropped();
+            return;
+        }
+
+        this.overflowed = true;
+        this.transferQueue.markOverflowed();
+        this.transferQueue.release();
+        this.abortTransfer();
+    }
+
+    private void abortTransfer() {
+        ServerInfo serverInfo = this.player.getServerInfo();
+        this.player.getLogger().warning("[" + this.player.getName() + "] Transfer queue exceeded budget, aborting transfer to " + serverInfo.getServerName());
+        if (!this.player.sendToFallback(serverInfo, "Transfer queue overflow")) {
+            this.player.disconnect(new TranslationContainer("waterdog.downstream.transfer.failed", serverInfo.getServerName(), "Transfer queue overflow"));
+        }
+    }
+
+    @Override
+    protected BatchCoalescer getCoalescer() {
+        return this.player.getUpstreamCoalescer();
+    }
+
+    public TransferQueue getTransferQueue() {
+        return this.transferQueue;
+    }
+
+    private static class HeldBatch {
+        private final BedrockSession session;
+        private final ByteBuf buf;
+        private final List<BedrockPacket> packets;
+
+        private HeldBatch(BedrockSession session, ByteBuf buf, List<BedrockPacket> packets) {
+            this.session = session;
+            this.buf = buf;
+            this.packets = packets;
+        }
     }
 }
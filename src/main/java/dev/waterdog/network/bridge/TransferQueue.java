@@ -0,0 +1,355 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.bridge;
+
+import com.nukkitx.network.VarInts;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.packet.*;
+import dev.waterdog.network.protocol.PacketIds;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds encoded packets received from new downstream during transfer until they can be sent to upstream.
+ * Queued frames are sent as one batch. World packets are indexed by chunk or block position,
+ * so chunk or block update which is received again replaces the previous one.
+ * Size of the queue is limited by per-player budget and by global budget shared by all transfer queues.
+ */
+public class TransferQueue {
+
+    private static final AtomicLong GLOBAL_BYTES = new AtomicLong();
+    private static final AtomicInteger GLOBAL_PACKETS = new AtomicInteger();
+    private static final AtomicLong TOTAL_DROPPED = new AtomicLong();
+    private static final AtomicLong TOTAL_REPLACED = new AtomicLong();
+    private static final AtomicLong TOTAL_OVERFLOWS = new AtomicLong();
+
+    /**
+     * Effect packets which are not needed by client which is just loading the world.
+     */
+    private static final List<Class<? extends BedrockPacket>> REDUNDANT_PACKETS = Arrays.asList(
+            LevelSoundEvent1Packet.class,
+            BlockEventPacket.class,
+            LevelSoundEvent2Packet.class,
+            SpawnParticleEffectPacket.class,
+            LevelSoundEventPacket.class
+    );
+
+    private static final Map<BedrockPacketCodec, PacketTypes> codecPacketTypes = new ConcurrentHashMap<>();
+
+    private final int budget;
+    private final long globalBudget;
+    private final PacketTypes packetTypes;
+
+    /**
+     * Superseded frames are replaced by null to keep indexes valid.
+     */
+    private final List<ByteBuf> frames = new ObjectArrayList<>();
+    private final Long2IntMap chunkIndex = new Long2IntOpenHashMap();
+    private final Long2IntMap blockIndex = new Long2IntOpenHashMap();
+    private int publisherIndex = -1;
+
+    private int bytes = 0;
+    /**
+     * Size of batches held by the bridge before they can be handled.
+     */
+    private int heldBytes = 0;
+    private int packetCount = 0;
+    private int droppedCount = 0;
+    private int replacedCount = 0;
+
+    /**
+     * @param codec codec with which queued frames are encoded. Packet ids are resolved from it.
+     * @param budget maximum size of queued frames in bytes, 0 for unlimited.
+     * @param globalBudget maximum size of frames in all transfer queues in bytes, 0 for unlimited.
+     */
+    public TransferQueue(BedrockPacketCodec codec, int budget, long globalBudget) {
+        this.budget = budget;
+        this.globalBudget = globalBudget;
+        this.packetTypes = codecPacketTypes.computeIfAbsent(codec, PacketTypes::new);
+        this.chunkIndex.defaultReturnValue(-1);
+        this.blockIndex.defaultReturnValue(-1);
+    }
+
+    public boolean isRedundantPacket(int packetId) {
+        return this.packetTypes.redundantPackets.contains(packetId);
+    }
+
+    /**
+     * Frame of world packet replaces previously queued frame for same position.
+     * New frame is appended to the end of queue, so it is not sent before packets which were received before it.
+     * @param frame length prefixed packet frame which is released by the queue.
+     * @return false if frame does not fit into budget. Frame is released in such case.
+     */
+    public synchronized boolean add(ByteBuf frame) {
+        int size = frame.readableBytes();
+        int packetId = -1;
+        long key = 0;
+        try {
+            ByteBuf reader = frame.duplicate();
+            VarInts.readUnsignedInt(reader); // Frame length
+            packetId = VarInts.readUnsignedInt(reader) & 0x3ff;
+            key = this.readKey(packetId, reader);
+        } catch (RuntimeException e) {
+            // Malformed packet is queued as it is
+            packetId = -1;
+        }
+
+        int previous = this.getIndex(packetId, key);
+        int replacedSize = previous == -1 ? 0 : this.frames.get(previous).readableBytes();
+        int growth = size - replacedSize;
+
+        if (growth > 0 && !this.fitsBudget(growth)) {
+            frame.release();
+            return false;
+        }
+
+        if (previous != -1) {
+            this.frames.set(previous, null).release();
+            this.packetCount--;
+            this.replacedCount++;
+            GLOBAL_PACKETS.decrementAndGet();
+            TOTAL_REPLACED.incrementAndGet();
+        }
+
+        this.setIndex(packetId, key, this.frames.size());
+        this.frames.add(frame);
+        this.bytes += growth;
+        this.packetCount++;
+        GLOBAL_BYTES.addAndGet(growth);
+        GLOBAL_PACKETS.incrementAndGet();
+        return true;
+    }
+
+    private boolean fitsBudget(int growth) {
+        return (this.budget <= 0 || this.bytes + this.heldBytes + growth <= this.budget) &&
+                (this.globalBudget <= 0 || GLOBAL_BYTES.get() + growth <= this.globalBudget);
+    }
+
+    /**
+     * Counts batch which is held before it can be handled to the budgets.
+     * @return false if the batch does not fit into budget.
+     */
+    public synchronized boolean hold(int size) {
+        if (!this.fitsBudget(size)) {
+            return false;
+        }
+        this.heldBytes += size;
+        GLOBAL_BYTES.addAndGet(size);
+        return true;
+    }
+
+    /**
+     * Held batches were handled or discarded.
+     */
+    public synchronized void releaseHeld() {
+        GLOBAL_BYTES.addAndGet(-this.heldBytes);
+        this.heldBytes = 0;
+    }
+
+    /**
+     * @return position key of world packet. Chunk packets are keyed by chunk position,
+     * block updates by block position and layer.
+     */
+    private long readKey(int packetId, ByteBuf reader) {
+        if (packetId == this.packetTypes.levelChunk) {
+            int chunkX = VarInts.readInt(reader);
+            int chunkZ = VarInts.readInt(reader);
+            return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+        }
+
+        if (packetId == this.packetTypes.updateBlock) {
+            int x = VarInts.readInt(reader);
+            int y = VarInts.readUnsignedInt(reader);
+            int z = VarInts.readInt(reader);
+            VarInts.readUnsignedInt(reader); // Runtime id
+            VarInts.readUnsignedInt(reader); // Flags
+            int layer = VarInts.readUnsignedInt(reader);
+            return ((x & 0x3ffffffL) << 38) | ((z & 0x3ffffffL) << 12) | ((y & 0x3ffL) << 2) | (layer & 0x3L);
+        }
+        return 0;
+    }
+
+    private int getIndex(int packetId, long key) {
+        if (packetId == -1) {
+            return -1;
+        } else if (packetId == this.packetTypes.levelChunk) {
+            return this.chunkIndex.get(key);
+        } else if (packetId == this.packetTypes.updateBlock) {
+            return this.blockIndex.get(key);
+        } else if (packetId == this.packetTypes.chunkPublisherUpdate) {
+            return this.publisherIndex;
+        }
+        return -1;
+    }
+
+    private void setIndex(int packetId, long key, int index) {
+        if (packetId == -1) {
+            return;
+        } else if (packetId == this.packetTypes.levelChunk) {
+            this.chunkIndex.put(key, index);
+        } else if (packetId == this.packetTypes.updateBlock) {
+            this.blockIndex.put(key, index);
+        } else if (packetId == this.packetTypes.chunkPublisherUpdate) {
+            this.publisherIndex = index;
+        }
+    }
+
+    /**
+     * Packet was left out of the queue.
+     */
+    public synchronized void markDropped() {
+        this.droppedCount++;
+        TOTAL_DROPPED.incrementAndGet();
+    }
+
+    /**
+     * Queue exceeded budget and transfer was aborted.
+     */
+    public void markOverflowed() {
+        TOTAL_OVERFLOWS.incrementAndGet();
+    }
+
+    /**
+     * @return uncompressed batch of all queued frames or null if queue is empty. Caller is responsible for releasing it.
+     */
+    public synchronized ByteBuf drain() {
+        if (this.packetCount == 0) {
+            this.clear();
+            return null;
+        }
+
+        CompositeByteBuf batch = ByteBufAllocator.DEFAULT.compositeDirectBuffer(Integer.MAX_VALUE);
+        for (ByteBuf frame : this.frames) {
+            if (frame != null) {
+                batch.addComponent(true, frame);
+            }
+        }
+        this.frames.clear();
+        this.clear();
+        return batch;
+    }
+
+    public synchronized void release() {
+        for (ByteBuf frame : this.frames) {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+        this.frames.clear();
+        this.clear();
+    }
+
+    private void clear() {
+        GLOBAL_BYTES.addAndGet(-this.bytes - this.heldBytes);
+        this.heldBytes = 0;
+        GLOBAL_PACKETS.addAndGet(-this.packetCount);
+        this.chunkIndex.clear();
+        this.blockIndex.clear();
+        this.publisherIndex = -1;
+        this.bytes = 0;
+        this.packetCount = 0;
+        this.droppedCount = 0;
+        this.replacedCount = 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.packetCount == 0;
+    }
+
+    public synchronized int getPacketCount() {
+        return this.packetCount;
+    }
+
+    public synchronized int getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * @return count of queued packets which were replaced by newer packet for same position.
+     */
+    public synchronized int getReplacedCount() {
+        return this.replacedCount;
+    }
+
+    public synchronized int getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return size of frames in all transfer queues in bytes.
+     */
+    public static long getGlobalBytes() {
+        return GLOBAL_BYTES.get();
+    }
+
+    /**
+     * @return count of packets in all transfer queues.
+     */
+    public static int getGlobalPacketCount() {
+        return GLOBAL_PACKETS.get();
+    }
+
+    /**
+     * @return count of packets dropped by all transfer queues since start.
+     */
+    public static long getTotalDroppedCount() {
+        return TOTAL_DROPPED.get();
+    }
+
+    /**
+     * @return count of packets replaced in all transfer queues since start.
+     */
+    public static long getTotalReplacedCount() {
+        return TOTAL_REPLACED.get();
+    }
+
+    /**
+     * @return count of transfers aborted due to exceeded budget since start.
+     */
+    public static long getTotalOverflowCount() {
+        return TOTAL_OVERFLOWS.get();
+    }
+
+    /**
+     * Packet ids resolved from codec with which frames are encoded.
+     */
+    private static class PacketTypes {
+        private final IntSet redundantPackets;
+        private final int updateBlock;
+        private final int levelChunk;
+        private final int chunkPublisherUpdate;
+
+        private PacketTypes(BedrockPacketCodec codec) {
+            this.redundantPackets = PacketIds.getIds(codec, REDUNDANT_PACKETS);
+            this.updateBlock = PacketIds.getId(codec, UpdateBlockPacket.class);
+            this.levelChunk = PacketIds.getId(codec, LevelChunkPacket.class);
+            this.chunkPublisherUpdate = PacketIds.getId(codec, NetworkChunkPublisherUpdatePacket.class);
+        }
+    }
+}
@@ -15,11 +15,9 @@
 
 package dev.waterdog.network.bridge;
 
-import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockSession;
-import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
-import dev.waterdog.utils.exceptions.CancelSignalException;
 import dev.waterdog.player.ProxiedPlayer;
+import dev.waterdog.utils.types.PacketHandler;
 
 public class UpstreamBridge extends ProxyBatchBridge {
 
@@ -28,12 +26,7 @@ public class UpstreamBridge extends ProxyBatchBridge {
     }
 
     @Override
-    public boolean handlePacket(BedrockPacket packet, BedrockPacketHandler handler) throws CancelSignalException {
-        boolean changed = super.handlePacket(packet, handler);
-        boolean pluginHandled = false;
-        if (this.player.getPluginUpstreamHandler() != null) {
-            pluginHandled = this.player.getPluginUpstreamHandler().handlePacket(packet);
-        }
-        return changed || pluginHandled;
+    protected PacketHandler getPluginHandler() {
+        return this.player.getPluginUpstreamHandler();
     }
 }
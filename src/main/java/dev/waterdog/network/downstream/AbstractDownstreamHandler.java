@@ -15,10 +15,16 @@
 
 package dev.waterdog.network.downstream;
 
+import com.nukkitx.protocol.bedrock.BedrockClientSession;
 import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
 import com.nukkitx.protocol.bedrock.packet.ChunkRadiusUpdatedPacket;
+import com.nukkitx.protocol.bedrock.packet.ClientToServerHandshakePacket;
+import com.nukkitx.protocol.bedrock.packet.ServerToClientHandshakePacket;
+import dev.waterdog.player.HandshakeUtils;
 import dev.waterdog.player.ProxiedPlayer;
 
+import java.security.KeyPair;
+
 public abstract class AbstractDownstreamHandler implements BedrockPacketHandler {
 
     protected final ProxiedPlayer player;
@@ -32,4 +38,26 @@ public abstract class AbstractDownstreamHandler implements BedrockPacketHandler
         this.player.getRewriteData().getChunkRadius().setRadius(packet.getRadius());
         return false;
     }
+
+    /**
+     * Derives encryption key on crypto executor and enables encryption once done on downstream event loop.
+     */
+    protected void processServerHandshake(BedrockClientSession downstream, ServerToClientHandshakePacket packet) {
+        KeyPair keyPair = this.player.getLoginData().getKeyPair();
+        this.player.getProxy().getCryptoExecutor().supply(() -> HandshakeUtils.createDownstreamKey(keyPair, packet.getJwt()))
+                .whenCompleteAsync((key, error) -> {
+                    if (downstream.isClosed()) {
+                        return;
+                    }
+
+                    if (error != null) {
+                        this.player.getLogger().error("[" + this.player.getAddress() + "|" + this.player.getName() + "] Unable to complete downstream handshake", error);
+                        downstream.disconnect();
+                        return;
+                    }
+
+                    downstream.enableEncryption(key);
+                    downstream.sendPacketImmediately(new ClientToServerHandshakePacket());
+                }, downstream.getEventLoop());
+    }
 }
@@ -15,9 +15,7 @@
 
 package dev.waterdog.network.downstream;
 
-import com.nimbusds.jwt.SignedJWT;
 import com.nukkitx.protocol.bedrock.packet.*;
-import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
 import dev.waterdog.network.protocol.ProtocolVersion;
 import dev.waterdog.network.rewrite.BlockMap;
 import dev.waterdog.network.rewrite.BlockMapModded;
@@ -27,10 +25,6 @@ import dev.waterdog.network.session.SessionInjections;
 import dev.waterdog.utils.exceptions.CancelSignalException;
 import dev.waterdog.player.ProxiedPlayer;
 
-import javax.crypto.SecretKey;
-import java.net.URI;
-import java.security.interfaces.ECPublicKey;
-import java.util.Base64;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class InitialHandler extends AbstractDownstreamHandler {
@@ -41,22 +35,7 @@ public class InitialHandler extends AbstractDownstreamHandler {
 
     @Override
     public final boolean handle(ServerToClientHandshakePacket packet) {
-        try {
-            SignedJWT saltJwt = SignedJWT.parse(packet.getJwt());
-            URI x5u = saltJwt.getHeader().getX509CertURL();
-            ECPublicKey serverKey = EncryptionUtils.generateKey(x5u.toASCIIString());
-            SecretKey key = EncryptionUtils.getSecretKey(
-                    this.player.getLoginData().getKeyPair().getPrivate(),
-                    serverKey,
-                    Base64.getDecoder().decode(saltJwt.getJWTClaimsSet().getStringClaim("salt"))
-            );
-            this.player.getServer().getDownstream().enableEncryption(key);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-
-        ClientToServerHandshakePacket clientToServerHandshake = new ClientToServerHandshakePacket();
-        this.player.getServer().sendPacket(clientToServerHandshake);
+        this.processServerHandshake(this.player.getServer().getDownstream(), packet);
         throw CancelSignalException.CANCEL;
     }
 
@@ -86,7 +65,11 @@ public class InitialHandler extends AbstractDownstreamHandler {
     public final boolean handle(StartGamePacket packet) {
         RewriteData rewriteData = this.player.getRewriteData();
         rewriteData.setOriginalEntityId(packet.getRuntimeEntityId());
-        rewriteData.setEntityId(ThreadLocalRandom.current().nextInt(10000, 15000));
+        if (this.player.getProxy().getConfiguration().useIdentityEntityId()) {
+            rewriteData.setEntityId(packet.getRuntimeEntityId());
+        } else {
+            rewriteData.setEntityId(ThreadLocalRandom.current().nextInt(10000, 15000));
+        }
         rewriteData.setGameRules(packet.getGamerules());
         rewriteData.setDimension(packet.getDimensionId());
         rewriteData.parseItemIds(packet.getItemEntries());
@@ -113,6 +96,7 @@ public class InitialHandler extends AbstractDownstreamHandler {
         packet.setRuntimeEntityId(rewriteData.getEntityId());
         packet.setUniqueEntityId(rewriteData.getEntityId());
 
+        this.player.getServerInfo().getCircuitBreaker().recordSuccess();
         SessionInjections.injectInitialHandlers(this.player.getServer(), this.player);
         return true;
     }
@@ -15,20 +15,20 @@
 
 package dev.waterdog.network.downstream;
 
-import com.nimbusds.jwt.SignedJWT;
 import com.nukkitx.math.vector.Vector3f;
 import com.nukkitx.protocol.bedrock.BedrockClient;
 import com.nukkitx.protocol.bedrock.BedrockClientSession;
 import com.nukkitx.protocol.bedrock.packet.*;
-import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
 import dev.waterdog.event.defaults.TransferCompleteEvent;
 import dev.waterdog.network.ServerInfo;
 import dev.waterdog.network.protocol.ProtocolVersion;
 import dev.waterdog.network.rewrite.types.BlockPalette;
 import dev.waterdog.network.rewrite.types.RewriteData;
+import dev.waterdog.network.session.PreConnection;
 import dev.waterdog.network.session.ServerConnection;
 import dev.waterdog.network.session.SessionInjections;
 import dev.waterdog.player.PlayerRewriteUtils;
+import dev.waterdog.player.TransferResetBatch;
 import dev.waterdog.utils.exceptions.CancelSignalException;
 import dev.waterdog.utils.types.TranslationContainer;
 import it.unimi.dsi.fastutil.longs.Long2LongMap;
@@ -36,10 +36,7 @@ import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
 import dev.waterdog.player.ProxiedPlayer;
 
-import javax.crypto.SecretKey;
-import java.net.URI;
-import java.security.interfaces.ECPublicKey;
-import java.util.Base64;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.UUID;
 
@@ -60,22 +57,7 @@ public class SwitchDownstreamHandler extends AbstractDownstreamHandler {
 
     @Override
     public final boolean handle(ServerToClientHandshakePacket packet) {
-        try {
-            SignedJWT saltJwt = SignedJWT.parse(packet.getJwt());
-            URI x5u = saltJwt.getHeader().getX509CertURL();
-            ECPublicKey serverKey = EncryptionUtils.generateKey(x5u.toASCIIString());
-            SecretKey key = EncryptionUtils.getSecretKey(
-                    this.player.getLoginData().getKeyPair().getPrivate(),
-                    serverKey,
-                    Base64.getDecoder().decode(saltJwt.getJWTClaimsSet().getStringClaim("salt"))
-            );
-            this.getDownstream().enableEncryption(key);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-
-        ClientToServerHandshakePacket clientToServerHandshake = new ClientToServerHandshakePacket();
-        this.getDownstream().sendPacketImmediately(clientToServerHandshake);
+        this.processServerHandshake(this.getDownstream(), packet);
         throw CancelSignalException.CANCEL;
     }
 
@@ -111,6 +93,7 @@ public class SwitchDownstreamHandler extends AbstractDownstreamHandler {
 
     @Override
     public final boolean handle(StartGamePacket packet) {
+        this.serverInfo.getCircuitBreaker().recordSuccess();
         RewriteData rewriteData = this.player.getRewriteData();
         rewriteData.setOriginalEntityId(packet.getRuntimeEntityId());
         rewriteData.setDimension(packet.getDimensionId());
@@ -126,31 +109,41 @@ public class SwitchDownstreamHandler extends AbstractDownstreamHandler {
             rewriteData.setBlockProperties(packet.getBlockProperties());
         }
 
+        if (this.player.getEgressScheduler() != null) {
+            // Deferred data of previous server is not relevant anymore
+            this.player.getEgressScheduler().release();
+        }
+
         Collection<UUID> playerList = this.player.getPlayers();
-        PlayerRewriteUtils.injectRemoveAllPlayers(this.player.getUpstream(), playerList);
+        Long2LongMap entityLinks = this.player.getEntityLinks();
+        LongSet entities = this.player.getEntities();
+        ObjectSet<String> scoreboards = this.player.getScoreboards();
+        LongSet bossbars = this.player.getBossbars();
+        BitSet activeEffects = this.player.getActiveEffects();
+        // Remove player list, entity links, entities, scoreboards, bossbars, effects and 7 state packets
+        int resetSize = 1 + entityLinks.size() + entities.size() + scoreboards.size() + bossbars.size() + activeEffects.cardinality() + 1 + 7;
+        TransferResetBatch reset = new TransferResetBatch(resetSize);
+
+        reset.add(PlayerRewriteUtils.createRemoveAllPlayers(playerList));
         playerList.clear();
 
-        Long2LongMap entityLinks = this.player.getEntityLinks();
         for (Long2LongMap.Entry entry : entityLinks.long2LongEntrySet()) {
-            PlayerRewriteUtils.injectRemoveEntityLink(this.player.getUpstream(), entry.getLongKey(), entry.getLongValue());
+            reset.add(PlayerRewriteUtils.createRemoveEntityLink(entry.getLongKey(), entry.getLongValue()));
         }
         entityLinks.clear();
 
-        LongSet entities = this.player.getEntities();
         for (long entityId : entities) {
-            PlayerRewriteUtils.injectRemoveEntity(this.player.getUpstream(), entityId);
+            reset.add(PlayerRewriteUtils.createRemoveEntity(entityId));
         }
         entities.clear();
 
-        ObjectSet<String> scoreboards = this.player.getScoreboards();
         for (String scoreboard : scoreboards) {
-            PlayerRewriteUtils.injectRemoveObjective(this.player.getUpstream(), scoreboard);
+            reset.add(PlayerRewriteUtils.createRemoveObjective(scoreboard));
         }
         scoreboards.clear();
 
-        LongSet bossbars = this.player.getBossbars();
         for (long bossbarId : bossbars) {
-            PlayerRewriteUtils.injectRemoveBossbar(this.player.getUpstream(), bossbarId);
+            reset.add(PlayerRewriteUtils.createRemoveBossbar(bossbarId));
         }
         bossbars.clear();
 
@@ -158,18 +151,21 @@ public class SwitchDownstreamHandler extends AbstractDownstreamHandler {
         initializedPacket.setRuntimeEntityId(rewriteData.getOriginalEntityId());
         this.getDownstream().sendPacket(initializedPacket);
 
-        PlayerRewriteUtils.injectGameMode(this.player.getUpstream(), packet.getPlayerGameType());
+        reset.add(PlayerRewriteUtils.createGameMode(packet.getPlayerGameType()));
 
         Vector3f rotation = Vector3f.from(packet.getRotation().getX(), 0, packet.getRotation().getY());
-        PlayerRewriteUtils.injectPosition(this.player.getUpstream(), packet.getPlayerPosition(), rotation, rewriteData.getEntityId());
+        reset.add(PlayerRewriteUtils.createPosition(packet.getPlayerPosition(), rotation, rewriteData.getEntityId()));
 
         this.getDownstream().sendPacket(rewriteData.getChunkRadius());
-        PlayerRewriteUtils.injectChunkPublisherUpdate(this.player.getUpstream(), packet.getPlayerPosition().toInt(), rewriteData.getChunkRadius().getRadius());
+        reset.add(PlayerRewriteUtils.createChunkPublisherUpdate(packet.getPlayerPosition().toInt(), rewriteData.getChunkRadius().getRadius()));
 
-        PlayerRewriteUtils.injectRemoveAllEffects(this.player.getUpstream(), rewriteData.getEntityId());
-        PlayerRewriteUtils.injectClearWeather(this.player.getUpstream());
-        PlayerRewriteUtils.injectGameRules(this.player.getUpstream(), rewriteData.getGameRules());
-        PlayerRewriteUtils.injectSetDifficulty(this.player.getUpstream(), packet.getDifficulty());
+        reset.addAll(PlayerRewriteUtils.createRemoveEffects(rewriteData.getEntityId(), activeEffects, this.player.getProtocol()));
+        activeEffects.clear();
+        reset.addAll(PlayerRewriteUtils.createClearWeather());
+        reset.add(PlayerRewriteUtils.createGameRules(rewriteData.getGameRules()));
+        reset.add(PlayerRewriteUtils.createSetDifficulty(packet.getDifficulty()));
+        reset.send(this.player);
+        this.player.getLogger().debug("[" + this.player.getName() + "] Sent transfer reset of " + reset.size() + " packets");
 
         ServerConnection oldServer = this.player.getServer();
         oldServer.getInfo().removePlayer(this.player);
@@ -190,6 +186,14 @@ public class SwitchDownstreamHandler extends AbstractDownstreamHandler {
 
     @Override
     public boolean handle(DisconnectPacket packet) {
+        PreConnection preConnection = this.player.getPreConnection();
+        if (preConnection != null && preConnection.getClient() == this.client) {
+            // Prepared connection was not used yet, so player is not notified
+            this.player.clearPreConnection(preConnection);
+            preConnection.close();
+            return false;
+        }
+
         this.player.sendMessage(new TranslationContainer("waterdog.downstream.transfer.failed", this.serverInfo.getServerName(), packet.getKickMessage()));
         this.client.close();
         this.player.setPendingConnection(null);
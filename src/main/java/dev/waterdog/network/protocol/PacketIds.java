@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.protocol;
+
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+
+import java.util.Collection;
+
+/**
+ * Resolves ids of packet types from codec, as ids of same packet type differ between protocol versions.
+ */
+public class PacketIds {
+
+    /**
+     * @return id of the packet type in the codec or -1 if the codec does not contain it.
+     */
+    public static int getId(BedrockPacketCodec codec, Class<? extends BedrockPacket> packetClass) {
+        try {
+            return codec.getId(packetClass.getDeclaredConstructor().newInstance());
+        } catch (Exception e) {
+            // Packet is not registered in this protocol
+            return -1;
+        }
+    }
+
+    /**
+     * @return unmodifiable set of ids of packet types which are registered in the codec.
+     */
+    public static IntSet getIds(BedrockPacketCodec codec, Collection<Class<? extends BedrockPacket>> packetClasses) {
+        IntSet ids = new IntOpenHashSet();
+        for (Class<? extends BedrockPacket> packetClass : packetClasses) {
+            int id = getId(codec, packetClass);
+            if (id != -1) {
+                ids.add(id);
+            }
+        }
+        return IntSets.unmodifiable(ids);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.protocol;
+
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
+import com.nukkitx.protocol.bedrock.packet.*;
+import dev.waterdog.network.downstream.ConnectedDownstreamHandler;
+import dev.waterdog.network.downstream.InitialHandler;
+import dev.waterdog.network.downstream.SwitchDownstreamHandler;
+import dev.waterdog.network.protocol.codec.BedrockCodec;
+import dev.waterdog.network.rewrite.BlockMap;
+import dev.waterdog.network.rewrite.EntityMap;
+import dev.waterdog.network.rewrite.EntityTracker;
+import dev.waterdog.network.rewrite.RawEntityMap;
+import dev.waterdog.network.upstream.HandshakeUpstreamHandler;
+import dev.waterdog.network.upstream.UpstreamHandler;
+import dev.waterdog.utils.types.PacketHandler;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves which packet types are inspected by the proxy handlers.
+ * Handler is interested in packet if it overrides matching handle() method of BedrockPacketHandler.
+ * Packets which are not inspected by any handler do not have to be decoded and can be passed as UnknownPacket.
+ */
+public class PacketInterest {
+
+    /**
+     * Handlers which are used by every protocol version.
+     */
+    private static final List<Class<? extends BedrockPacketHandler>> COMMON_HANDLERS = Arrays.asList(
+            HandshakeUpstreamHandler.class,
+            UpstreamHandler.class,
+            InitialHandler.class,
+            SwitchDownstreamHandler.class,
+            ConnectedDownstreamHandler.class,
+            EntityMap.class,
+            EntityTracker.class
+    );
+
+    /**
+     * Packets which are created and sent by proxy itself. These must stay registered in codec.
+     */
+    private static final Set<Class<? extends BedrockPacket>> OUTBOUND_PACKETS = new ObjectOpenHashSet<>(Arrays.asList(
+            DisconnectPacket.class,
+            PlayStatusPacket.class,
+            ServerToClientHandshakePacket.class,
+            ClientToServerHandshakePacket.class,
+            ResourcePacksInfoPacket.class,
+            ResourcePackStackPacket.class,
+            ResourcePackClientResponsePacket.class,
+            ResourcePackDataInfoPacket.class,
+            ResourcePackChunkDataPacket.class,
+            SetLocalPlayerAsInitializedPacket.class,
+            RequestChunkRadiusPacket.class,
+            TextPacket.class,
+            SetTitlePacket.class,
+            TransferPacket.class,
+            NetworkChunkPublisherUpdatePacket.class,
+            SetPlayerGameTypePacket.class,
+            GameRulesChangedPacket.class,
+            LevelEventPacket.class,
+            SetDifficultyPacket.class,
+            SetEntityLinkPacket.class,
+            RemoveEntityPacket.class,
+            PlayerListPacket.class,
+            MobEffectPacket.class,
+            SetEntityDataPacket.class,
+            RemoveObjectivePacket.class,
+            BossEventPacket.class,
+            MovePlayerPacket.class
+    ));
+
+    private static final Map<Class<?>, Set<Class<? extends BedrockPacket>>> handlerCache = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Boolean> genericHandlerCache = new ConcurrentHashMap<>();
+    private static final Map<ProtocolVersion, Set<Class<? extends BedrockPacket>>> protocolCache = new ConcurrentHashMap<>();
+
+    /**
+     * @param handlerClass class of packet handler.
+     * @return unmodifiable set of packet types overridden by handler.
+     */
+    public static Set<Class<? extends BedrockPacket>> of(Class<? extends BedrockPacketHandler> handlerClass) {
+        return handlerCache.computeIfAbsent(handlerClass, PacketInterest::resolveHandler);
+    }
+
+    /**
+     * Plugin handler which overrides PacketHandler#handlePacket() may inspect any packet.
+     * @return true if handler is interested in all packets.
+     */
+    public static boolean isGeneric(Class<? extends BedrockPacketHandler> handlerClass) {
+        return genericHandlerCache.computeIfAbsent(handlerClass, PacketInterest::resolveGeneric);
+    }
+
+    public static boolean isInterested(Class<? extends BedrockPacketHandler> handlerClass, Class<? extends BedrockPacket> packetClass) {
+        return isGeneric(handlerClass) || of(handlerClass).contains(packetClass);
+    }
+
+    /**
+     * @return list of all handlers which may inspect packets of given protocol.
+     */
+    public static List<Class<? extends BedrockPacketHandler>> getHandlers(ProtocolVersion protocol) {
+        List<Class<? extends BedrockPacketHandler>> handlers = new ObjectArrayList<>(COMMON_HANDLERS);
+        // Starting with 419 server does not send vanilla blocks to client and blocks are not rewritten
+        if (protocol.getProtocol() <= ProtocolVersion.MINECRAFT_PE_1_16_20.getProtocol()) {
+            handlers.add(BlockMap.class);
+        }
+        return handlers;
+    }
+
+    /**
+     * @return unmodifiable set of packet types which proxy inspects or sends for given protocol.
+     */
+    public static Set<Class<? extends BedrockPacket>> forProtocol(ProtocolVersion protocol) {
+        return protocolCache.computeIfAbsent(protocol, PacketInterest::resolveProtocol);
+    }
+
+    /**
+     * Packet is uninterested if some proxy handler inspects it for other protocols, but none does for given protocol.
+     * Such packets can be removed from fast codec and passed as raw UnknownPacket.
+     * @return set of packet types which do not have to be decoded for given protocol.
+     */
+    public static Set<Class<? extends BedrockPacket>> getUninterested(ProtocolVersion protocol) {
+        Set<Class<? extends BedrockPacket>> packets = new ObjectOpenHashSet<>();
+        for (Class<? extends BedrockPacketHandler> handlerClass : COMMON_HANDLERS) {
+            packets.addAll(of(handlerClass));
+        }
+        packets.addAll(of(BlockMap.class));
+        packets.removeAll(forProtocol(protocol));
+        return packets;
+    }
+
+    /**
+     * Check if all packets handled by given handler are decoded by fast codec of given protocol.
+     * @param handlerClass class of handler, usually plugin PacketHandler.
+     * @return false if handler is interested in packets which fast codec passes rawly.
+     */
+    public static boolean isCovered(Class<? extends BedrockPacketHandler> handlerClass, ProtocolVersion protocol) {
+        BedrockCodec bedrockCodec = ProtocolConstants.getBedrockCodec(protocol);
+        if (bedrockCodec == null || bedrockCodec.getUninterestedPackets().isEmpty()) {
+            return true;
+        }
+        return !isGeneric(handlerClass) && Collections.disjoint(of(handlerClass), bedrockCodec.getUninterestedPackets());
+    }
+
+    private static Set<Class<? extends BedrockPacket>> resolveProtocol(ProtocolVersion protocol) {
+        Set<Class<? extends BedrockPacket>> packets = new ObjectOpenHashSet<>();
+        for (Class<? extends BedrockPacketHandler> handlerClass : getHandlers(protocol)) {
+            packets.addAll(of(handlerClass));
+        }
+
+        // Entity ids of these packets are rewritten in raw payload by RawEntityMap
+        packets.removeAll(RawEntityMap.REWRITTEN_PACKETS);
+        packets.addAll(OUTBOUND_PACKETS);
+        return Collections.unmodifiableSet(packets);
+    }
+
+    private static boolean resolveGeneric(Class<?> handlerClass) {
+        for (Class<?> clazz = handlerClass; clazz != null && clazz != PacketHandler.class && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            try {
+                clazz.getDeclaredMethod("handlePacket", BedrockPacket.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Not overridden by this class
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<Class<? extends BedrockPacket>> resolveHandler(Class<?> handlerClass) {
+        Set<Class<? extends BedrockPacket>> packets = new ObjectOpenHashSet<>();
+        // Default methods of BedrockPacketHandler are not declared by classes so we get overridden methods only
+        for (Class<?> clazz = handlerClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (!method.getName().equals("handle") || method.isSynthetic() || method.getParameterCount() != 1) {
+                    continue;
+                }
+
+                Class<?> parameter = method.getParameterTypes()[0];
+                if (parameter != BedrockPacket.class && BedrockPacket.class.isAssignableFrom(parameter)) {
+                    packets.add((Class<? extends BedrockPacket>) parameter);
+                }
+            }
+        }
+        return Collections.unmodifiableSet(packets);
+    }
+}
@@ -16,14 +16,20 @@
 package dev.waterdog.network.protocol.codec;
 
 import com.google.common.base.Preconditions;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
 import dev.waterdog.ProxyServer;
 import dev.waterdog.event.defaults.ProtocolCodecRegisterEvent;
+import dev.waterdog.network.protocol.PacketInterest;
 import dev.waterdog.network.protocol.ProtocolVersion;
 
+import java.util.Collections;
+import java.util.Set;
+
 public abstract class BedrockCodec {
 
     private BedrockPacketCodec packetCodec;
+    private Set<Class<? extends BedrockPacket>> uninterestedPackets = Collections.emptySet();
 
     public BedrockCodec() {
     }
@@ -63,6 +69,13 @@ public abstract class BedrockCodec {
             this.registerCommands(builder);
         }
 
+        // Packets which no proxy handler inspects for this protocol will be passed rawly as UnknownPacket.
+        // Plugins are still able to register them again using ProtocolCodecRegisterEvent.
+        Set<Class<? extends BedrockPacket>> uninterestedPackets = PacketInterest.getUninterested(protocol);
+        for (Class<? extends BedrockPacket> packetClass : uninterestedPackets) {
+            builder.deregisterPacket(packetClass);
+        }
+
         // We use ProtocolCodecRegisterEvent to modify final codec.
         // When this event is canceled codec will not be registered.
         ProtocolCodecRegisterEvent event = new ProtocolCodecRegisterEvent(protocol, builder);
@@ -72,6 +85,7 @@ public abstract class BedrockCodec {
         }
 
         this.setPacketCodec(builder.build());
+        this.uninterestedPackets = Collections.unmodifiableSet(uninterestedPackets);
         return true;
     }
 
@@ -95,6 +109,13 @@ public abstract class BedrockCodec {
         return this.packetCodec;
     }
 
+    /**
+     * @return packet types which are not decoded by this codec because proxy does not inspect them.
+     */
+    public Set<Class<? extends BedrockPacket>> getUninterestedPackets() {
+        return this.uninterestedPackets;
+    }
+
     public void setPacketCodec(BedrockPacketCodec packetCodec) {
         Preconditions.checkNotNull(packetCodec, "New packet codec can not be null!");
         Preconditions.checkArgument(this.packetCodec == null, "Packet Codec cannot be overwritten on Runtime!");
@@ -25,6 +25,8 @@ import com.nukkitx.protocol.bedrock.handler.BedrockPacketHandler;
 import com.nukkitx.protocol.bedrock.packet.*;
 import io.netty.buffer.AbstractByteBufAllocator;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import dev.waterdog.network.rewrite.types.BlockPaletteRewrite;
 import dev.waterdog.network.rewrite.types.RewriteData;
 import dev.waterdog.player.ProxiedPlayer;
@@ -46,74 +48,71 @@ public class BlockMap implements BedrockPacketHandler {
     }
 
     public boolean doRewrite(BedrockPacket packet) {
-        return this.player.canRewrite() && packet.handle(this);
+        BlockPaletteRewrite paletteRewrite = this.getPaletteRewrite();
+        // Skip identity rewrite completely
+        return this.player.canRewrite() && paletteRewrite != null && !paletteRewrite.isIdentity() && packet.handle(this);
     }
 
     protected int translateId(int runtimeId){
         return this.getPaletteRewrite().fromDownstream(runtimeId);
     }
 
+    /**
+     * Chunk data is rewritten in place while encoded palette entries keep their length.
+     * Once any entry changes length, data is streamed into single output buffer.
+     */
     @Override
     public boolean handle(LevelChunkPacket packet) {
-        byte[] oldData = packet.getData();
-        ByteBuf from = AbstractByteBufAllocator.DEFAULT.ioBuffer(oldData.length);
-        ByteBuf to = AbstractByteBufAllocator.DEFAULT.ioBuffer(oldData.length);
+        byte[] data = packet.getData();
+        ByteBuf from = Unpooled.wrappedBuffer(data);
+        ChunkRewrite chunkRewrite = new ChunkRewrite(from);
 
         try {
-            from.writeBytes(oldData);
-            boolean success = this.rewriteChunkData(from, to,  packet.getSubChunksLength());
-            if (success) {
-                to.writeBytes(from); // Copy the rest
-                byte[] newData = new byte[to.readableBytes()];
-                to.readBytes(newData);
-                packet.setData(newData);
+            this.rewriteChunkData(from, chunkRewrite, packet.getSubChunksLength());
+            if (chunkRewrite.to != null) {
+                packet.setData(ByteBufUtil.getBytes(chunkRewrite.finish()));
             }
-            return success;
+            return chunkRewrite.changed;
         } finally {
-            from.release();
-            to.release();
+            chunkRewrite.release();
         }
     }
 
-    private boolean rewriteChunkData(ByteBuf from, ByteBuf to, int sections) {
+    private void rewriteChunkData(ByteBuf from, ChunkRewrite chunkRewrite, int sections) {
         for (int section = 0; section < sections; section++) {
             int chunkVersion = from.readUnsignedByte();
-            to.writeByte(chunkVersion);
 
             switch (chunkVersion) {
                 case 0: // Legacy block ids, no remap needed
                 case 4: // MiNet uses this format
                 case 139:
-                    to.writeBytes(from);
-                    return true;
+                    return;
                 case 8: // New form chunk, baked-in palette
                     int storageCount = from.readUnsignedByte();
-                    to.writeByte(storageCount);
 
                     for (int storage = 0; storage < storageCount; storage++) {
                         int flags = from.readUnsignedByte();
                         int bitsPerBlock = flags >> 1; // isRuntime = (flags & 0x1) != 0
                         int blocksPerWord = Integer.SIZE / bitsPerBlock;
                         int nWords = (nV8Blocks + blocksPerWord - 1) / blocksPerWord;
-
-                        to.writeByte(flags);
-                        to.writeBytes(from, nWords * Integer.BYTES);
+                        from.skipBytes(nWords * Integer.BYTES);
 
                         int nPaletteEntries = VarInts.readInt(from);
-                        VarInts.writeInt(to, nPaletteEntries);
-
                         for (int i = 0; i < nPaletteEntries; i++) {
+                            int index = from.readerIndex();
                             int runtimeId = VarInts.readInt(from);
-                            VarInts.writeInt(to, this.translateId(runtimeId));
+                            int translated = this.translateId(runtimeId);
+                            if (translated != runtimeId) {
+                                chunkRewrite.replace(index, translated);
+                            }
                         }
                     }
                     break;
                 default: // Unsupported
                     this.player.getLogger().warning("PEBlockRewrite: Unknown subchunk format " + chunkVersion);
-                    return false;
+                    return;
             }
         }
-        return true;
     }
 
     @Override
@@ -164,4 +163,71 @@ public class BlockMap implements BedrockPacketHandler {
         metaData.putInt(EntityData.VARIANT, this.translateId(runtimeId));
         return true;
     }
+
+    /**
+     * Holds state of chunk data rewrite.
+     * Output buffer is allocated only if some palette entry changes its encoded length.
+     */
+    private static class ChunkRewrite {
+        private final ByteBuf from;
+        private ByteBuf to;
+        private int copiedIndex;
+        private boolean changed;
+
+        private ChunkRewrite(ByteBuf from) {
+            this.from = from;
+        }
+
+        /**
+         * Replaces palette entry which starts at given index and ends at current reader index of source buffer.
+         */
+        private void replace(int index, int runtimeId) {
+            int length = this.from.readerIndex() - index;
+            this.changed = true;
+
+            if (this.to == null && getVarIntSize(runtimeId) == length) {
+                setVarInt(this.from, index, runtimeId);
+                return;
+            }
+
+            if (this.to == null) {
+                this.to = AbstractByteBufAllocator.DEFAULT.ioBuffer(this.from.capacity() + 64);
+            }
+            // Data before index may already contain entries patched in place
+            this.to.writeBytes(this.from, this.copiedIndex, index - this.copiedIndex);
+            VarInts.writeInt(this.to, runtimeId);
+            this.copiedIndex = this.from.readerIndex();
+        }
+
+        private ByteBuf finish() {
+            this.to.writeBytes(this.from, this.copiedIndex, this.from.capacity() - this.copiedIndex); // Copy the rest
+            this.copiedIndex = this.from.capacity();
+            return this.to;
+        }
+
+        private void release() {
+            if (this.to != null) {
+                this.to.release();
+            }
+        }
+
+        private static int getVarIntSize(int value) {
+            int encoded = (value << 1) ^ (value >> 31);
+            int size = 1;
+            while ((encoded & ~0x7F) != 0) {
+                encoded >>>= 7;
+                size++;
+            }
+            return size;
+        }
+
+        private static void setVarInt(ByteBuf buf, int index, int value) {
+            int encoded = (value << 1) ^ (value >> 31);
+            while ((encoded & ~0x7F) != 0) {
+                buf.setByte(index++, (encoded & 0x7F) | 0x80);
+                encoded >>>= 7;
+            }
+            buf.setByte(index, encoded);
+        }
+    }
 }
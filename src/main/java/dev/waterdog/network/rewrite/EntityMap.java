@@ -39,7 +39,8 @@ public class EntityMap implements BedrockPacketHandler {
     }
 
     public boolean doRewrite(BedrockPacket packet) {
-        return this.player.canRewrite() && packet.handle(this);
+        // Client uses entityId of downstream until first transfer
+        return this.player.canRewrite() && !this.rewrite.hasIdentityEntityId() && packet.handle(this);
     }
 
     @Override
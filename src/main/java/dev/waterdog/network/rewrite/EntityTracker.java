@@ -69,6 +69,25 @@ public class EntityTracker implements BedrockPacketHandler {
         return false;
     }
 
+    @Override
+    public boolean handle(MobEffectPacket packet) {
+        // Entity id is already rewritten at this point
+        if (packet.getRuntimeEntityId() != this.player.getRewriteData().getEntityId()) {
+            return false;
+        }
+
+        switch (packet.getEvent()) {
+            case ADD:
+            case MODIFY:
+                this.player.getActiveEffects().set(packet.getEffectId());
+                break;
+            case REMOVE:
+                this.player.getActiveEffects().clear(packet.getEffectId());
+                break;
+        }
+        return false;
+    }
+
     @Override
     public boolean handle(PlayerListPacket packet) {
         List<PlayerListPacket.Entry> entries = packet.getEntries();
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.rewrite;
+
+import com.nukkitx.network.VarInts;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockPacketCodec;
+import com.nukkitx.protocol.bedrock.packet.*;
+import dev.waterdog.network.protocol.ProtocolVersion;
+import dev.waterdog.network.rewrite.types.RewriteData;
+import dev.waterdog.player.PlayerRewriteUtils;
+import dev.waterdog.player.ProxiedPlayer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMaps;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rewrites entity runtime ids of high-volume packets directly in raw payload of UnknownPacket.
+ * These packets are not decoded by fast codec, so we skip creating packet objects completely.
+ * Decoded instances of same packets are still handled by EntityMap.
+ */
+public class RawEntityMap {
+
+    /**
+     * Packet types which can be rewritten without being decoded with count of varint fields written before runtime id.
+     * SetEntityDataPacket is sent by proxy, so it stays decoded and is handled by EntityMap.
+     */
+    private static final Map<Class<? extends BedrockPacket>, Integer> RUNTIME_ID_OFFSETS = new LinkedHashMap<>();
+
+    static {
+        RUNTIME_ID_OFFSETS.put(MoveEntityAbsolutePacket.class, 0);
+        RUNTIME_ID_OFFSETS.put(SetEntityMotionPacket.class, 0);
+        RUNTIME_ID_OFFSETS.put(MoveEntityDeltaPacket.class, 0);
+        // Runtime id follows action type
+        RUNTIME_ID_OFFSETS.put(AnimatePacket.class, 1);
+    }
+
+    /**
+     * Packet types which can be rewritten without being decoded.
+     */
+    public static final Set<Class<? extends BedrockPacket>> REWRITTEN_PACKETS = Collections.unmodifiableSet(RUNTIME_ID_OFFSETS.keySet());
+
+    private static final Map<ProtocolVersion, Int2IntMap> protocolOffsets = new ConcurrentHashMap<>();
+
+    private final ProxiedPlayer player;
+    private final RewriteData rewrite;
+    private final Int2IntMap runtimeIdOffsets;
+
+    public RawEntityMap(ProxiedPlayer player) {
+        this.player = player;
+        this.rewrite = player.getRewriteData();
+        this.runtimeIdOffsets = getRuntimeIdOffsets(player.getProtocol());
+    }
+
+    /**
+     * Packet ids are resolved from codec of the protocol, so they follow protocol changes.
+     * @return map of packet id to count of varint fields written before runtime id.
+     */
+    public static Int2IntMap getRuntimeIdOffsets(ProtocolVersion protocol) {
+        return protocolOffsets.computeIfAbsent(protocol, RawEntityMap::resolveOffsets);
+    }
+
+    private static Int2IntMap resolveOffsets(ProtocolVersion protocol) {
+        Int2IntMap offsets = new Int2IntOpenHashMap();
+        offsets.defaultReturnValue(-1);
+        BedrockPacketCodec codec = protocol.getDefaultCodec();
+        for (Map.Entry<Class<? extends BedrockPacket>, Integer> entry : RUNTIME_ID_OFFSETS.entrySet()) {
+            try {
+                BedrockPacket packet = entry.getKey().getDeclaredConstructor().newInstance();
+                offsets.put(codec.getId(packet), entry.getValue().intValue());
+            } catch (Exception e) {
+                // Packet is not registered in this protocol
+            }
+        }
+        return Int2IntMaps.unmodifiable(offsets);
+    }
+
+    /**
+     * @return if packet payload was changed.
+     */
+    public boolean doRewrite(UnknownPacket packet) {
+        if (!this.player.canRewrite() || this.rewrite.hasIdentityEntityId()) {
+            return false;
+        }
+
+        int skipFields = this.runtimeIdOffsets.get(packet.getPacketId());
+        return skipFields >= 0 && this.rewriteRuntimeId(packet, skipFields);
+    }
+
+    /**
+     * Patches runtime id in place if encoded length did not change. Otherwise only payload of this packet is copied.
+     * @param skipFields count of varint fields written before runtime id.
+     */
+    private boolean rewriteRuntimeId(UnknownPacket packet, int skipFields) {
+        ByteBuf payload = packet.getPayload();
+        int startIndex = payload.readerIndex();
+
+        for (int i = 0; i < skipFields; i++) {
+            VarInts.readUnsignedInt(payload);
+        }
+
+        int idIndex = payload.readerIndex();
+        long runtimeId = VarInts.readUnsignedLong(payload);
+        int idLength = payload.readerIndex() - idIndex;
+
+        long rewrittenId = PlayerRewriteUtils.rewriteId(runtimeId, this.rewrite.getEntityId(), this.rewrite.getOriginalEntityId());
+        if (rewrittenId == runtimeId) {
+            payload.readerIndex(startIndex);
+            return false;
+        }
+
+        if (getVarLongSize(rewrittenId) == idLength) {
+            // Reader index has to be moved back first, writer index can not be set below it
+            payload.readerIndex(startIndex);
+            int writerIndex = payload.writerIndex();
+            payload.writerIndex(idIndex);
+            VarInts.writeUnsignedLong(payload, rewrittenId);
+            payload.writerIndex(writerIndex);
+            return true;
+        }
+
+        ByteBuf newPayload = ByteBufAllocator.DEFAULT.ioBuffer(payload.writerIndex() - startIndex + 10);
+        newPayload.writeBytes(payload, startIndex, idIndex - startIndex);
+        VarInts.writeUnsignedLong(newPayload, rewrittenId);
+        newPayload.writeBytes(payload);
+
+        packet.setPayload(newPayload);
+        payload.release();
+        return true;
+    }
+
+    private static int getVarLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -21,11 +21,13 @@ public class RewriteMaps {
 
     private final EntityTracker entityTracker;
     private final EntityMap entityMap;
+    private final RawEntityMap rawEntityMap;
     private BlockMap blockMap;
 
     public RewriteMaps(ProxiedPlayer player) {
         this.entityTracker = new EntityTracker(player);
         this.entityMap = new EntityMap(player);
+        this.rawEntityMap = new RawEntityMap(player);
     }
 
     public EntityTracker getEntityTracker() {
@@ -36,6 +38,10 @@ public class RewriteMaps {
         return this.entityMap;
     }
 
+    public RawEntityMap getRawEntityMap() {
+        return this.rawEntityMap;
+    }
+
     public void setBlockMap(BlockMap blockMap) {
         this.blockMap = blockMap;
     }
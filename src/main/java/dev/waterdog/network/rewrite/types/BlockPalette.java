@@ -18,48 +18,73 @@ package dev.waterdog.network.rewrite.types;
 import com.nukkitx.nbt.NbtList;
 import com.nukkitx.nbt.NbtMap;
 import dev.waterdog.network.protocol.ProtocolVersion;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ShortLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ShortMap;
 import it.unimi.dsi.fastutil.shorts.Short2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Class used to map Block Palettes, as some server-softwares are randomizing them.
  * Prevents glitches with blocks.
  */
 public class BlockPalette {
 
-    private static final Int2ObjectMap<BlockPalette> paletteCache = new Int2ObjectOpenHashMap<>();
+    private final String digest;
+    /**
+     * Palette entries are parsed lazily, they are not needed if translation tables are loaded from cache.
+     */
+    private volatile NbtList<NbtMap> paletteData;
+
     private final Object2ShortMap<BlockPair> entryToId = new Object2ShortLinkedOpenHashMap<>();
     private final Short2ObjectMap<BlockPair> idToEntry = new Short2ObjectLinkedOpenHashMap<>();
+    /**
+     * Rewrites from this palette to upstream palettes mapped by digest of upstream palette.
+     * Palettes are cached, so rewrites are shared by all players.
+     */
+    private final Map<String, BlockPaletteRewrite> rewriteCache = new ConcurrentHashMap<>();
 
     public BlockPalette(NbtList<NbtMap> paletteData, ProtocolVersion protocol) {
-        short id = 0;
-        for (NbtMap item : paletteData) {
-            final NbtMap block = item.getCompound("block");
-            this.addEntry(id++, block.getString("name"), block.getCompound("states"));
-        }
+        this(BlockPaletteRegistry.createDigest(paletteData), paletteData, protocol);
+    }
+
+    public BlockPalette(String digest, NbtList<NbtMap> paletteData, ProtocolVersion protocol) {
+        this.digest = digest;
+        this.paletteData = paletteData;
     }
 
     public static BlockPalette getPalette(NbtList<NbtMap> paletteData, ProtocolVersion protocol) {
-        int hashId = paletteData.hashCode();
-        if (paletteCache.containsKey(hashId)) {
-            return paletteCache.get(hashId);
+        return BlockPaletteRegistry.getPalette(paletteData, protocol);
+    }
+
+    synchronized void loadEntries() {
+        if (this.paletteData == null) {
+            return;
         }
 
-        BlockPalette palette = new BlockPalette(paletteData, protocol);
-        paletteCache.put(hashId, palette);
-        return palette;
+        short id = 0;
+        for (NbtMap item : this.paletteData) {
+            final NbtMap block = item.getCompound("block");
+            this.addEntry(id++, block.getString("name"), block.getCompound("states"));
+        }
+        this.paletteData = null;
     }
 
     public BlockPaletteRewrite createRewrite(BlockPalette upstreamPalette) {
         if (BlockPalette.this == upstreamPalette) {
             return BlockPaletteRewrite.BLOCK_EQUAL;
         }
-        return new BlockPaletteRewrite(upstreamPalette, this);
+        return this.rewriteCache.computeIfAbsent(upstreamPalette.getDigest(), digest -> {
+            int[] table = BlockPaletteRegistry.loadTable(this, upstreamPalette);
+            if (table == null) {
+                table = BlockPaletteRewrite.compileTable(upstreamPalette, this);
+                BlockPaletteRegistry.saveTable(this, upstreamPalette, table);
+            }
+            return BlockPaletteRewrite.fromTable(table);
+        });
     }
 
     private void addEntry(short id, String name, Object data) {
@@ -68,14 +93,39 @@ public class BlockPalette {
         this.idToEntry.put(id, pair);
     }
 
+    public String getDigest() {
+        return this.digest;
+    }
+
     public int getId(BlockPair entry) {
+        if (this.paletteData != null) {
+            this.loadEntries();
+        }
         return this.entryToId.getShort(entry) & 0xFFFF;
     }
 
     public BlockPair getEntry(int id) {
+        if (this.paletteData != null) {
+            this.loadEntries();
+        }
         return this.idToEntry.get((short) id);
     }
 
+    /**
+     * @return count of palette entries without parsing them.
+     */
+    public int getEntryCount() {
+        NbtList<NbtMap> paletteData = this.paletteData;
+        return paletteData == null ? this.idToEntry.size() : paletteData.size();
+    }
+
+    public int size() {
+        if (this.paletteData != null) {
+            this.loadEntries();
+        }
+        return this.idToEntry.size();
+    }
+
     public static final class BlockPair extends Pair<String, Object> {
         private final String key;
         private final Object data;
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.rewrite.types;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nukkitx.nbt.NBTOutputStream;
+import com.nukkitx.nbt.NbtList;
+import com.nukkitx.nbt.NbtMap;
+import com.nukkitx.nbt.NbtUtils;
+import dev.waterdog.ProxyServer;
+import dev.waterdog.network.protocol.ProtocolVersion;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Registry of block palettes sent by downstream servers.
+ * Palettes are identified by SHA-256 digest of their network serialized form, so equal palettes are shared by all players.
+ * Compiled translation tables between palettes are persisted to cache directory and reused after restart.
+ */
+public class BlockPaletteRegistry {
+
+    private static final int MAX_PALETTES = 32;
+    private static final String TABLE_EXTENSION = ".table";
+
+    private static final Cache<String, BlockPalette> paletteCache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PALETTES)
+            .build();
+    /**
+     * Digests of palette data already seen. Comparing palette data is cheaper than serializing and hashing it again.
+     */
+    private static final Cache<NbtList<NbtMap>, String> digestCache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PALETTES)
+            .build();
+
+    public static BlockPalette getPalette(NbtList<NbtMap> paletteData, ProtocolVersion protocol) {
+        String digest = digestCache.asMap().computeIfAbsent(paletteData, BlockPaletteRegistry::createDigest);
+        return paletteCache.asMap().computeIfAbsent(digest, key -> new BlockPalette(key, paletteData, protocol));
+    }
+
+    public static String createDigest(NbtList<NbtMap> paletteData) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+
+        // Palette is serialized directly into digest without buffering
+        try (NBTOutputStream stream = NbtUtils.createNetworkWriter(new DigestOutputStream(OutputStream.nullOutputStream(), messageDigest))) {
+            stream.writeTag(paletteData);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize block palette", e);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (byte b : messageDigest.digest()) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return translation table loaded from cache directory or null if table was not cached yet.
+     */
+    public static int[] loadTable(BlockPalette downstreamPalette, BlockPalette upstreamPalette) {
+        Path path = getTablePath(downstreamPalette, upstreamPalette);
+        if (path == null || !Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            // Cached file may be corrupted, table is compiled again if it does not match the palettes
+            int length = stream.readInt();
+            if (length != downstreamPalette.getEntryCount() || Files.size(path) != 4L + 4L * length) {
+                ProxyServer.getInstance().getLogger().warning("Cached palette table " + path + " is invalid, rebuilding it");
+                return null;
+            }
+
+            int upstreamCount = upstreamPalette.getEntryCount();
+            int[] table = new int[length];
+            for (int i = 0; i < table.length; i++) {
+                int runtimeId = stream.readInt();
+                if (runtimeId < 0 || runtimeId >= upstreamCount) {
+                    ProxyServer.getInstance().getLogger().warning("Cached palette table " + path + " is invalid, rebuilding it");
+                    return null;
+                }
+                table[i] = runtimeId;
+            }
+            return table;
+        } catch (IOException e) {
+            ProxyServer.getInstance().getLogger().warning("Unable to load cached palette table " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves compiled translation table to cache directory asynchronously.
+     */
+    public static void saveTable(BlockPalette downstreamPalette, BlockPalette upstreamPalette, int[] table) {
+        Path path = getTablePath(downstreamPalette, upstreamPalette);
+        if (path == null) {
+            return;
+        }
+
+        ProxyServer.getInstance().getScheduler().scheduleAsync(() -> {
+            try {
+                Files.createDirectories(path.getParent());
+                // Write to temporary file first so incomplete table is never loaded
+                Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+                try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                    stream.writeInt(table.length);
+                    for (int runtimeId : table) {
+                        stream.writeInt(runtimeId);
+                    }
+                }
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                ProxyServer.getInstance().getLogger().warning("Unable to save palette table " + path, e);
+            }
+        });
+    }
+
+    private static Path getTablePath(BlockPalette downstreamPalette, BlockPalette upstreamPalette) {
+        ProxyServer proxy = ProxyServer.getInstance();
+        if (proxy == null) {
+            return null;
+        }
+        return proxy.getDataPath().resolve("cache").resolve("palettes")
+                .resolve(downstreamPalette.getDigest() + "-" + upstreamPalette.getDigest() + TABLE_EXTENSION);
+    }
+}
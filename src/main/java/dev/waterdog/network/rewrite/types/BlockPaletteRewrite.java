@@ -15,24 +15,68 @@
 
 package dev.waterdog.network.rewrite.types;
 
+/**
+ * Translates block runtime ids of downstream palette to ids of palette known to client.
+ * Translation is compiled once into flat array indexed by downstream runtime id.
+ */
 public class BlockPaletteRewrite {
 
-    public static final BlockPaletteRewrite BLOCK_EQUAL = new BlockPaletteRewrite(null, null) {
+    public static final BlockPaletteRewrite BLOCK_EQUAL = new BlockPaletteRewrite(new int[0]) {
         @Override
         public int fromDownstream(int runtimeId) {
             return runtimeId;
         }
+
+        @Override
+        public boolean isIdentity() {
+            return true;
+        }
     };
 
-    private final BlockPalette upstreamPalette;
-    private final BlockPalette downstreamPalette;
+    private final int[] translationTable;
 
     public BlockPaletteRewrite(BlockPalette upstreamPalette, BlockPalette downstreamPalette) {
-        this.upstreamPalette = upstreamPalette;
-        this.downstreamPalette = downstreamPalette;
+        this(compileTable(upstreamPalette, downstreamPalette));
+    }
+
+    private BlockPaletteRewrite(int[] translationTable) {
+        this.translationTable = translationTable;
+    }
+
+    /**
+     * Creates rewrite from compiled translation table. If every id is translated to itself, BLOCK_EQUAL is returned.
+     */
+    public static BlockPaletteRewrite fromTable(int[] table) {
+        for (int runtimeId = 0; runtimeId < table.length; runtimeId++) {
+            if (table[runtimeId] != runtimeId) {
+                return new BlockPaletteRewrite(table);
+            }
+        }
+        return BLOCK_EQUAL;
+    }
+
+    public static int[] compileTable(BlockPalette upstreamPalette, BlockPalette downstreamPalette) {
+        upstreamPalette.loadEntries();
+        downstreamPalette.loadEntries();
+        int[] table = new int[downstreamPalette.size()];
+        for (int runtimeId = 0; runtimeId < table.length; runtimeId++) {
+            table[runtimeId] = upstreamPalette.getId(downstreamPalette.getEntry(runtimeId));
+        }
+        return table;
     }
 
     public int fromDownstream(int runtimeId) {
-        return this.upstreamPalette.getId(this.downstreamPalette.getEntry(runtimeId));
+        if (runtimeId < 0 || runtimeId >= this.translationTable.length) {
+            // Unknown entries are translated to first block same as in palette lookup
+            return 0;
+        }
+        return this.translationTable[runtimeId];
+    }
+
+    /**
+     * @return true if every runtime id is translated to itself and rewrite can be skipped.
+     */
+    public boolean isIdentity() {
+        return false;
     }
 }
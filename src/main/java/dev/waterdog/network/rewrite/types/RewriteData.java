@@ -76,6 +76,13 @@ public class RewriteData {
         this.entityId = entityId;
     }
 
+    /**
+     * @return true if client-known entityId matches the downstream-known entityId and ids do not have to be rewritten.
+     */
+    public boolean hasIdentityEntityId() {
+        return this.entityId == this.originalEntityId;
+    }
+
     public long getOriginalEntityId() {
         return this.originalEntityId;
     }
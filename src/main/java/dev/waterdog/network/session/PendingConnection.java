@@ -17,20 +17,34 @@ package dev.waterdog.network.session;
 
 import com.nukkitx.protocol.bedrock.BedrockClient;
 import dev.waterdog.network.ServerInfo;
+import dev.waterdog.network.bridge.TransferBatchBridge;
 
 public class PendingConnection {
 
     private final ServerInfo serverInfo;
     private BedrockClient client;
+    private volatile TransferBatchBridge bridge;
+    private volatile boolean closed = false;
 
     public PendingConnection(ServerInfo serverInfo) {
         this.serverInfo = serverInfo;
     }
 
     public void close() {
+        this.closed = true;
         if (this.client != null) {
             this.client.close();
         }
+        if (this.bridge != null) {
+            this.bridge.release();
+        }
+    }
+
+    /**
+     * @return if the connection was closed by proxy.
+     */
+    public boolean isClosed() {
+        return this.closed;
     }
 
     public ServerInfo getInfo() {
@@ -44,4 +58,15 @@ public class PendingConnection {
     public BedrockClient getClient() {
         return this.client;
     }
+
+    /**
+     * @param bridge bridge which queues packets of the downstream until the transfer completes.
+     */
+    public void setBridge(TransferBatchBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    public TransferBatchBridge getBridge() {
+        return this.bridge;
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.network.session;
+
+import dev.waterdog.network.ServerInfo;
+
+/**
+ * Downstream connection which was opened before the player requested transfer.
+ * Login and resource pack negotiation are done in advance and StartGamePacket is held
+ * by the bridge until the connection is used by transfer or until it expires.
+ */
+public class PreConnection extends PendingConnection {
+
+    /**
+     * Default time in milliseconds after which unused connection is closed.
+     */
+    public static final long DEFAULT_EXPIRY = 10000;
+
+    public PreConnection(ServerInfo serverInfo) {
+        super(serverInfo);
+    }
+
+    /**
+     * Passes held packets to the transfer handlers. Connection can be used as usual pending connection afterwards.
+     */
+    public void activate() {
+        this.getBridge().releaseHeldBatches();
+    }
+
+    /**
+     * @return if downstream is connected and the connection can be used for transfer.
+     */
+    public boolean isReady() {
+        return this.getBridge() != null && this.getClient() != null && this.getClient().getSession() != null &&
+                !this.getClient().getSession().isClosed();
+    }
+}
@@ -34,6 +34,8 @@ import dev.waterdog.player.ProxiedPlayer;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The Pipeline Handler handling the login handshake part of the initial connect. Will be replaced after success.
@@ -74,12 +76,30 @@ public class HandshakeUpstreamHandler implements BedrockPacketHandler {
         }
         JsonArray certChain = certJson.getAsJsonArray("chain");
 
+        // Chain verification and key exchange are expensive, so they are not done on event loop
+        boolean encryption = this.proxy.getConfiguration().isUpstreamEncryption();
+        this.proxy.getCryptoExecutor().supply(() -> {
+            HandshakeEntry handshakeEntry = HandshakeUtils.processHandshake(this.session, packet, certChain, protocol);
+            if (encryption) {
+                handshakeEntry.setUpstreamEncryption(HandshakeUtils.createEncryption(handshakeEntry.getIdentityPublicKey()));
+            }
+            return handshakeEntry;
+        }).whenCompleteAsync((handshakeEntry, error) -> {
+            if (error != null) {
+                this.onLoginFailure(error);
+            } else if (!this.session.isClosed()) {
+                this.onHandshake(handshakeEntry, protocolVersion);
+            }
+        }, this.session.getEventLoop());
+        return true;
+    }
+
+    private void onHandshake(HandshakeEntry handshakeEntry, int protocolVersion) {
         try {
-            HandshakeEntry handshakeEntry = HandshakeUtils.processHandshake(session, packet, certChain, protocol);
             if (!handshakeEntry.isXboxAuthed() && this.proxy.getConfiguration().isOnlineMode()) {
                 this.proxy.getLogger().info("[" + session.getAddress()  + "|" + handshakeEntry.getDisplayName() + "] <-> Upstream has disconnected due to failed XBOX authentication!");
                 session.disconnect("disconnectionScreen.notAuthenticated");
-                return true;
+                return;
             }
 
             this.proxy.getLogger().info("[" + session.getAddress()  + "|" + handshakeEntry.getDisplayName() + "] <-> Upstream has connected (protocol=" + protocolVersion + ")");
@@ -89,12 +109,27 @@ public class HandshakeUpstreamHandler implements BedrockPacketHandler {
             this.proxy.getEventManager().callEvent(loginEvent);
             if (loginEvent.isCancelled()) {
                 session.disconnect(loginEvent.getCancelReason());
-                return true;
+                return;
             }
 
             ProxiedPlayer player = loginEvent.getBaseClass().getConstructor(ProxyServer.class, BedrockServerSession.class, LoginData.class).newInstance(this.proxy, this.session, loginData);
+            // Signing of downstream login packet is done in advance on crypto executor too
+            this.proxy.getCryptoExecutor().supply(loginData::rebuildLoginPacket).whenCompleteAsync((loginPacket, error) -> {
+                if (error != null) {
+                    this.onLoginFailure(error);
+                } else if (!this.session.isClosed()) {
+                    this.onLoginComplete(player);
+                }
+            }, this.session.getEventLoop());
+        } catch (Exception e) {
+            this.onLoginFailure(e);
+        }
+    }
+
+    private void onLoginComplete(ProxiedPlayer player) {
+        try {
             if (!this.proxy.getPlayerManager().registerPlayer(player)) {
-                return true;
+                return;
             }
 
             PlayStatusPacket status = new PlayStatusPacket();
@@ -103,10 +138,20 @@ public class HandshakeUpstreamHandler implements BedrockPacketHandler {
 
             player.initPlayer();
         } catch (Exception e) {
-            session.disconnect("disconnectionScreen.internalError.cantConnect");
-            throw new RuntimeException("Unable to complete login", e);
+            this.onLoginFailure(e);
         }
-        return true;
+    }
+
+    private void onLoginFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            this.proxy.getLogger().warning("[" + session.getAddress() + "] <-> Upstream has disconnected due to full login queue (queued=" + this.proxy.getCryptoExecutor().getQueueDepth() + ")");
+            session.disconnect("disconnectionScreen.serverFull");
+            return;
+        }
+
+        session.disconnect("disconnectionScreen.internalError.cantConnect");
+        this.proxy.getLogger().error("[" + session.getAddress() + "] Unable to complete login", cause);
     }
 
 }
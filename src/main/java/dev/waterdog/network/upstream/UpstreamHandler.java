@@ -53,13 +53,13 @@ public class UpstreamHandler implements BedrockPacketHandler {
                         this.player.disconnect("disconnectionScreen.resourcePack");
                         break;
                     }
-                    this.player.getUpstream().sendPacket(response);
+                    this.player.sendPacket(response);
                 }
                 break;
             case HAVE_ALL_PACKS:
                 PlayerResourcePackApplyEvent event = new PlayerResourcePackApplyEvent(this.player, packManager.getStackPacket());
                 this.player.getProxy().getEventManager().callEvent(event);
-                this.player.getUpstream().sendPacket(event.getStackPacket());
+                this.player.sendPacket(event.getStackPacket());
                 break;
             case COMPLETED:
                 if (!this.player.hasUpstreamBridge()) {
@@ -83,7 +83,7 @@ public class UpstreamHandler implements BedrockPacketHandler {
             return this.cancel();
         }
 
-        this.player.getUpstream().sendPacket(response);
+        this.player.sendPacket(response);
         return this.cancel();
     }
 
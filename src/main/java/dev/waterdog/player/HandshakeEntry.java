@@ -17,7 +17,6 @@ package dev.waterdog.player;
 
 import com.google.gson.JsonObject;
 import com.nukkitx.protocol.bedrock.BedrockServerSession;
-import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
 import dev.waterdog.ProxyServer;
 import dev.waterdog.network.protocol.ProtocolVersion;
 import dev.waterdog.network.session.LoginData;
@@ -33,6 +32,7 @@ public class HandshakeEntry {
     private final JsonObject extraData;
     private final boolean xboxAuthed;
     private final ProtocolVersion protocol;
+    private UpstreamEncryption upstreamEncryption;
 
     public HandshakeEntry(ECPublicKey identityPublicKey, JsonObject clientData, JsonObject extraData, boolean xboxAuthed, ProtocolVersion protocol) {
         this.identityPublicKey = identityPublicKey;
@@ -45,7 +45,7 @@ public class HandshakeEntry {
     public LoginData buildData(BedrockServerSession session, ProxyServer proxy) throws Exception {
         // This is first event which exposes new player connecting to proxy.
         // The purpose is to change player's client data or set encryption keypair before joining first downstream.
-        PreClientDataSetEvent event = new PreClientDataSetEvent(this.clientData, this.extraData, EncryptionUtils.createKeyPair(), session);
+        PreClientDataSetEvent event = new PreClientDataSetEvent(this.clientData, this.extraData, proxy.getKeyPairPool().take(), session);
         proxy.getEventManager().callEvent(event);
 
         LoginData.LoginDataBuilder builder = LoginData.builder();
@@ -61,11 +61,25 @@ public class HandshakeEntry {
         builder.extraData(this.extraData);
 
         if (proxy.getConfiguration().isUpstreamEncryption()) {
-            HandshakeUtils.processEncryption(session, this.identityPublicKey);
+            if (this.upstreamEncryption == null) {
+                this.upstreamEncryption = HandshakeUtils.createEncryption(this.identityPublicKey);
+            }
+            HandshakeUtils.enableEncryption(session, this.upstreamEncryption);
         }
         return builder.build();
     }
 
+    /**
+     * Sets encryption prepared in advance, so it does not need to be created while building login data.
+     */
+    public void setUpstreamEncryption(UpstreamEncryption upstreamEncryption) {
+        this.upstreamEncryption = upstreamEncryption;
+    }
+
+    public UpstreamEncryption getUpstreamEncryption() {
+        return this.upstreamEncryption;
+    }
+
     public ECPublicKey getIdentityPublicKey() {
         return this.identityPublicKey;
     }
@@ -22,6 +22,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.nimbusds.jose.*;
 import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jwt.SignedJWT;
 import com.nukkitx.protocol.bedrock.BedrockSession;
 import com.nukkitx.protocol.bedrock.packet.LoginPacket;
 import com.nukkitx.protocol.bedrock.packet.ServerToClientHandshakePacket;
@@ -62,27 +63,45 @@ public class HandshakeUtils {
     }
 
     public static boolean validateChain(JsonArray chainArray) throws Exception {
+        return verifyChain(chainArray).isXboxAuthed();
+    }
+
+    /**
+     * Verifies login certificate chain. Results are cached until the chain expires.
+     */
+    public static VerifiedChain verifyChain(JsonArray chainArray) throws Exception {
+        String digest = VerifiedChainCache.createDigest(chainArray);
+        VerifiedChain cachedChain = VerifiedChainCache.get(digest);
+        if (cachedChain != null) {
+            return cachedChain;
+        }
+
         ECPublicKey lastKey = null;
         boolean validChain = false;
+        boolean brokenChain = false;
+        long expiration = Long.MAX_VALUE;
 
         for (JsonElement element : chainArray){
             JWSObject jwt = JWSObject.parse(element.getAsString());
-            if (!validChain) {
+            if (!validChain && !brokenChain) {
                 validChain = EncryptionUtils.verifyJwt(jwt, EncryptionUtils.getMojangPublicKey());
             }
 
-            if (lastKey != null) {
-                if (!EncryptionUtils.verifyJwt(jwt, lastKey)) {
-                    return false;
-                }
+            if (lastKey != null && !brokenChain) {
+                // Identity key of invalid chain is still needed, so remaining certificates are only parsed
+                brokenChain = !EncryptionUtils.verifyJwt(jwt, lastKey);
             }
 
             JsonObject payload = (JsonObject) JsonParser.parseString(jwt.getPayload().toString());
             Preconditions.checkArgument(payload.has("identityPublicKey"), "IdentityPublicKey node is missing in chain!");
             JsonElement ipkNode = payload.get("identityPublicKey");
             lastKey = EncryptionUtils.generateKey(ipkNode.getAsString());
+            expiration = payload.has("exp") ? Math.min(expiration, payload.get("exp").getAsLong() * 1000) : 0;
         }
-        return validChain;
+
+        VerifiedChain chain = new VerifiedChain(validChain && !brokenChain, lastKey, expiration == Long.MAX_VALUE ? 0 : expiration);
+        VerifiedChainCache.put(digest, chain);
+        return chain;
     }
 
     public static JWSObject createExtraData(KeyPair pair, JsonObject extraData) {
@@ -117,21 +136,19 @@ public class HandshakeUtils {
 
     public static HandshakeEntry processHandshake(BedrockSession session, LoginPacket packet, JsonArray certChain, ProtocolVersion protocol) throws Exception {
         // Cert chain should be signed by Mojang is is client xbox authenticated
-        boolean xboxAuth = HandshakeUtils.validateChain(certChain);
+        VerifiedChain chain = HandshakeUtils.verifyChain(certChain);
         JWSObject jwt = JWSObject.parse(certChain.get(certChain.size() - 1).getAsString());
         JsonObject payload = (JsonObject) JsonParser.parseString(jwt.getPayload().toString());
         JsonObject extraData = HandshakeUtils.parseExtraData(packet, payload);
 
-        if (!payload.has("identityPublicKey")) {
+        ECPublicKey identityPublicKey = chain.getIdentityPublicKey();
+        if (identityPublicKey == null) {
             throw new RuntimeException("Identity Public Key was not found!");
         }
-        String identityPublicKeyString = payload.get("identityPublicKey").getAsString();
-
-        ECPublicKey identityPublicKey = EncryptionUtils.generateKey(identityPublicKeyString);
         JWSObject clientJwt = JWSObject.parse(packet.getSkinData().toString());
         EncryptionUtils.verifyJwt(clientJwt, identityPublicKey);
         JsonObject clientData = HandshakeUtils.parseClientData(clientJwt, extraData, session);
-        return new HandshakeEntry(identityPublicKey, clientData, extraData, xboxAuth, protocol);
+        return new HandshakeEntry(identityPublicKey, clientData, extraData, chain.isXboxAuthed(), protocol);
     }
 
     public static JsonObject parseClientData(JWSObject clientJwt, JsonObject extraData, BedrockSession session) throws Exception {
@@ -160,12 +177,38 @@ public class HandshakeUtils {
     }
 
     public static void processEncryption(BedrockSession session, PublicKey key) throws Exception {
+        enableEncryption(session, createEncryption(key));
+    }
+
+    /**
+     * Derives upstream encryption key and signs handshake jwt. This can be done outside of session event loop.
+     */
+    public static UpstreamEncryption createEncryption(PublicKey key) throws Exception {
         byte[] token = EncryptionUtils.generateRandomToken();
         SecretKey encryptionKey = EncryptionUtils.getSecretKey(privateKeyPair.getPrivate(), key, token);
-        session.enableEncryption(encryptionKey);
+        String jwt = EncryptionUtils.createHandshakeJwt(privateKeyPair, token).serialize();
+        return new UpstreamEncryption(encryptionKey, jwt);
+    }
+
+    public static void enableEncryption(BedrockSession session, UpstreamEncryption encryption) {
+        session.enableEncryption(encryption.getKey());
 
         ServerToClientHandshakePacket packet = new ServerToClientHandshakePacket();
-        packet.setJwt(EncryptionUtils.createHandshakeJwt(privateKeyPair, token).serialize());
+        packet.setJwt(encryption.getJwt());
         session.sendPacketImmediately(packet);
     }
+
+    /**
+     * Derives downstream encryption key from handshake jwt sent by downstream server.
+     */
+    public static SecretKey createDownstreamKey(KeyPair keyPair, String handshakeJwt) throws Exception {
+        SignedJWT saltJwt = SignedJWT.parse(handshakeJwt);
+        URI x5u = saltJwt.getHeader().getX509CertURL();
+        ECPublicKey serverKey = EncryptionUtils.generateKey(x5u.toASCIIString());
+        return EncryptionUtils.getSecretKey(
+                keyPair.getPrivate(),
+                serverKey,
+                Base64.getDecoder().decode(saltJwt.getJWTClaimsSet().getStringClaim("salt"))
+        );
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.player;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nukkitx.protocol.bedrock.util.EncryptionUtils;
+import dev.waterdog.ProxyServer;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of key pairs used to sign player login data sent to downstream servers.
+ * Low priority background thread keeps the pool filled, so key pairs do not need to be generated while player logs in.
+ * If the pool is drained, key pair is generated synchronously.
+ */
+public class KeyPairPool {
+
+    private static final long FAILURE_BACKOFF = 1000L;
+
+    private final ProxyServer proxy;
+    private final BlockingQueue<KeyPair> pool;
+    private final AtomicLong misses = new AtomicLong();
+    private Thread thread;
+
+    public KeyPairPool(ProxyServer proxy) {
+        this.proxy = proxy;
+        int size = proxy.getConfiguration().getKeyPairPoolSize();
+        this.pool = size > 0 ? new ArrayBlockingQueue<>(size) : null;
+    }
+
+    public synchronized void start() {
+        if (this.pool == null || this.thread != null) {
+            return;
+        }
+
+        ThreadFactoryBuilder builder = new ThreadFactoryBuilder();
+        builder.setNameFormat("WaterdogKeyPair Generator");
+        builder.setDaemon(true);
+        builder.setPriority(Thread.MIN_PRIORITY);
+        this.thread = builder.build().newThread(this::fill);
+        this.thread.start();
+    }
+
+    public synchronized void shutdown() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    private void fill() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Blocks while the pool is full
+                this.pool.put(EncryptionUtils.createKeyPair());
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                this.proxy.getLogger().error("Unable to generate key pair", e);
+                if (!this.backOff()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pauses generation shortly after failure, so transient errors do not stop the pool from being filled.
+     * @return false if the thread was interrupted by shutdown.
+     */
+    private boolean backOff() {
+        try {
+            Thread.sleep(FAILURE_BACKOFF);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return pre-generated key pair or newly generated key pair if the pool is empty.
+     */
+    public KeyPair take() {
+        KeyPair keyPair = this.pool == null ? null : this.pool.poll();
+        if (keyPair != null) {
+            return keyPair;
+        }
+
+        this.misses.incrementAndGet();
+        return EncryptionUtils.createKeyPair();
+    }
+
+    public int getSize() {
+        return this.pool == null ? 0 : this.pool.size();
+    }
+
+    /**
+     * @return count of key pairs which had to be generated synchronously.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+}
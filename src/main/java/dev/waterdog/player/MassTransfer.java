@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.player;
+
+import dev.waterdog.network.ServerInfo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of players transferred by MassTransferService.
+ * Every player ends as completed if it reached the target server, as failed if the started transfer did not succeed
+ * or as skipped if player left or was already connected to the target server before the transfer was started.
+ */
+public class MassTransfer {
+
+    private final ServerInfo targetServer;
+    private final int total;
+    private final AtomicInteger released = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final CompletableFuture<MassTransfer> future = new CompletableFuture<>();
+
+    public MassTransfer(ServerInfo targetServer, int total) {
+        this.targetServer = targetServer;
+        this.total = total;
+        this.checkDone();
+    }
+
+    void onReleased() {
+        this.released.incrementAndGet();
+    }
+
+    void onCompleted() {
+        this.completed.incrementAndGet();
+        this.checkDone();
+    }
+
+    void onFailed() {
+        this.failed.incrementAndGet();
+        this.checkDone();
+    }
+
+    void onSkipped() {
+        this.skipped.incrementAndGet();
+        this.checkDone();
+    }
+
+    private void checkDone() {
+        if (this.isDone()) {
+            this.future.complete(this);
+        }
+    }
+
+    public ServerInfo getTargetServer() {
+        return this.targetServer;
+    }
+
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return count of players for which the transfer was already started.
+     */
+    public int getReleased() {
+        return this.released.get();
+    }
+
+    public int getCompleted() {
+        return this.completed.get();
+    }
+
+    public int getFailed() {
+        return this.failed.get();
+    }
+
+    public int getSkipped() {
+        return this.skipped.get();
+    }
+
+    /**
+     * @return count of players which still wait to be transferred.
+     */
+    public int getQueued() {
+        return this.total - this.released.get() - this.skipped.get();
+    }
+
+    public boolean isDone() {
+        return this.completed.get() + this.failed.get() + this.skipped.get() >= this.total;
+    }
+
+    /**
+     * @return future completed once all players were processed.
+     */
+    public CompletableFuture<MassTransfer> getFuture() {
+        return this.future;
+    }
+}
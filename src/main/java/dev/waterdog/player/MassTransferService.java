@@ -0,0 +1,273 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.player;
+
+import dev.waterdog.ProxyServer;
+import dev.waterdog.network.ServerInfo;
+import dev.waterdog.network.session.PendingConnection;
+import dev.waterdog.scheduler.TaskHandler;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers many players to one server without connecting all of them at once.
+ * Transfers are queued per target server and released with configured concurrency limit, rate and random delay.
+ * Without concurrency limit and rate all players are connected immediately and only their progress is tracked.
+ */
+public class MassTransferService {
+
+    /**
+     * Time in milliseconds after which released transfer no longer counts as in flight.
+     */
+    public static final long TRANSFER_TIMEOUT = 30000;
+
+    private final ProxyServer proxy;
+    private final Map<ServerInfo, TargetQueue> queues = new ConcurrentHashMap<>();
+    private TaskHandler task;
+
+    public MassTransferService(ProxyServer proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * Queues transfer of given players to target server.
+     * @param players players to transfer. Collection is copied while holding its lock, so synchronized collections can be passed.
+     * @return transfer handle which can be used to track progress.
+     */
+    public MassTransfer transfer(Collection<ProxiedPlayer> players, ServerInfo targetServer) {
+        List<ProxiedPlayer> playerList;
+        synchronized (players) {
+            playerList = new ObjectArrayList<>(players);
+        }
+        MassTransfer transfer = new MassTransfer(targetServer, playerList.size());
+        List<Entry> released = new ObjectArrayList<>();
+        this.queues.compute(targetServer, (serverInfo, targetQueue) -> {
+            if (targetQueue == null) {
+                targetQueue = new TargetQueue(serverInfo);
+            }
+            targetQueue.enqueue(playerList, transfer);
+            // Release what is allowed right away, rest is released on next ticks
+            targetQueue.process(System.currentTimeMillis(), released);
+            return targetQueue;
+        });
+
+        this.release(released, targetServer);
+        this.ensureStarted();
+        return transfer;
+    }
+
+    private synchronized void ensureStarted() {
+        if (this.task == null) {
+            this.task = this.proxy.getScheduler().scheduleRepeating(this::onTick, 1);
+        }
+    }
+
+    public synchronized void stop() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+    }
+
+    private void onTick() {
+        long now = System.currentTimeMillis();
+        List<Entry> released = new ObjectArrayList<>();
+        for (ServerInfo serverInfo : this.queues.keySet()) {
+            this.queues.computeIfPresent(serverInfo, (key, queue) -> queue.process(now, released) ? null : queue);
+            this.release(released, serverInfo);
+            released.clear();
+        }
+    }
+
+    /**
+     * Connects released players outside of queue lock, as transfer calls events.
+     */
+    private void release(List<Entry> entries, ServerInfo targetServer) {
+        int jitter = this.proxy.getConfiguration().getMassTransferJitter();
+        for (Entry entry : entries) {
+            if (jitter <= 0 || !entry.player.isConnected()) {
+                this.connect(entry, targetServer);
+                continue;
+            }
+
+            int delay = ThreadLocalRandom.current().nextInt(jitter);
+            entry.player.getUpstream().getEventLoop().schedule(() -> this.connect(entry, targetServer), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void connect(Entry entry, ServerInfo targetServer) {
+        try {
+            if (entry.player.isConnected()) {
+                entry.player.connect(targetServer);
+                // Transfer could be redirected to other server by PreTransferEvent
+                PendingConnection pendingConnection = entry.player.getPendingConnection();
+                if (pendingConnection != null) {
+                    entry.target = pendingConnection.getInfo();
+                }
+            }
+        } catch (Exception e) {
+            this.proxy.getLogger().error("Unable to transfer " + entry.player.getName() + " to " + targetServer.getServerName(), e);
+        } finally {
+            entry.started = true;
+        }
+    }
+
+    /**
+     * Checks if the transfer of the player finished and updates its progress.
+     * Started transfer is compared with server to which the player actually connects.
+     * @param started if the player was already sent to target server.
+     * @return if the entry no longer needs to be tracked.
+     */
+    private boolean checkFinished(Entry entry, boolean started) {
+        ProxiedPlayer player = entry.player;
+        ServerInfo targetServer = entry.target;
+        if (player.getServerInfo() == targetServer) {
+            if (started) {
+                entry.transfer.onCompleted();
+            } else {
+                entry.transfer.onSkipped();
+            }
+            return true;
+        }
+
+        if (!player.isConnected()) {
+            if (started) {
+                entry.transfer.onFailed();
+            } else {
+                entry.transfer.onSkipped();
+            }
+            return true;
+        }
+
+        if (!started) {
+            return false;
+        }
+
+        PendingConnection pendingConnection = player.getPendingConnection();
+        if (pendingConnection == null || pendingConnection.getInfo() != targetServer ||
+                System.currentTimeMillis() - entry.releaseTime >= TRANSFER_TIMEOUT) {
+            entry.transfer.onFailed();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return count of players waiting for transfer to all servers.
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        for (TargetQueue queue : this.queues.values()) {
+            count += queue.getQueuedCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return count of released transfers which did not finish yet.
+     */
+    public int getInFlightCount() {
+        int count = 0;
+        for (TargetQueue queue : this.queues.values()) {
+            count += queue.getInFlightCount();
+        }
+        return count;
+    }
+
+    private static class Entry {
+        private final ProxiedPlayer player;
+        private final MassTransfer transfer;
+        private volatile ServerInfo target;
+        private long releaseTime;
+        /**
+         * Set once the player was sent to the server. Release may be delayed by jitter.
+         */
+        private volatile boolean started = false;
+
+        private Entry(ProxiedPlayer player, MassTransfer transfer, ServerInfo target) {
+            this.player = player;
+            this.transfer = transfer;
+            this.target = target;
+        }
+    }
+
+    private class TargetQueue {
+        private final ServerInfo targetServer;
+        private final ObjectArrayFIFOQueue<Entry> queued = new ObjectArrayFIFOQueue<>();
+        private final List<Entry> inFlight = new ObjectArrayList<>();
+        private double tokens = 1;
+        private long lastRefill = System.currentTimeMillis();
+
+        private TargetQueue(ServerInfo targetServer) {
+            this.targetServer = targetServer;
+        }
+
+        private synchronized void enqueue(List<ProxiedPlayer> players, MassTransfer transfer) {
+            for (ProxiedPlayer player : players) {
+                this.queued.enqueue(new Entry(player, transfer, this.targetServer));
+            }
+        }
+
+        /**
+         * Releases queued transfers allowed by concurrency limit and rate.
+         * @param released list to which released entries are added. They must be connected by caller.
+         * @return if the queue is empty and can be removed.
+         */
+        private synchronized boolean process(long now, List<Entry> released) {
+            this.inFlight.removeIf(entry -> (entry.started || now - entry.releaseTime >= TRANSFER_TIMEOUT) &&
+                    checkFinished(entry, true));
+
+            int concurrency = proxy.getConfiguration().getMassTransferConcurrency();
+            int rate = proxy.getConfiguration().getMassTransferRate();
+            if (rate > 0) {
+                // Allow bursts of at most one second worth of transfers
+                this.tokens = Math.min(rate, this.tokens + (now - this.lastRefill) * rate / 1000D);
+            }
+            this.lastRefill = now;
+
+            while (!this.queued.isEmpty() && (concurrency <= 0 || this.inFlight.size() < concurrency) && (rate <= 0 || this.tokens >= 1)) {
+                Entry entry = this.queued.dequeue();
+                if (checkFinished(entry, false)) {
+                    continue;
+                }
+
+                if (rate > 0) {
+                    this.tokens--;
+                }
+                entry.releaseTime = now;
+                entry.transfer.onReleased();
+                this.inFlight.add(entry);
+                released.add(entry);
+            }
+            return this.queued.isEmpty() && this.inFlight.isEmpty();
+        }
+
+        private synchronized int getQueuedCount() {
+            return this.queued.size();
+        }
+
+        private synchronized int getInFlightCount() {
+            return this.inFlight.size();
+        }
+    }
+}
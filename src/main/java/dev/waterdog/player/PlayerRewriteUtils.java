@@ -17,6 +17,7 @@ package dev.waterdog.player;
 
 import com.nukkitx.math.vector.Vector3f;
 import com.nukkitx.math.vector.Vector3i;
+import com.nukkitx.protocol.bedrock.BedrockPacket;
 import com.nukkitx.protocol.bedrock.BedrockSession;
 import com.nukkitx.protocol.bedrock.data.GameRuleData;
 import com.nukkitx.protocol.bedrock.data.GameType;
@@ -24,8 +25,12 @@ import com.nukkitx.protocol.bedrock.data.LevelEventType;
 import com.nukkitx.protocol.bedrock.data.entity.EntityData;
 import com.nukkitx.protocol.bedrock.data.entity.EntityLinkData;
 import com.nukkitx.protocol.bedrock.packet.*;
+import dev.waterdog.network.bridge.BatchCoalescer;
+import dev.waterdog.network.protocol.ProtocolVersion;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
@@ -41,6 +46,26 @@ public class PlayerRewriteUtils {
         defaultChunkRadius.setRadius(8);
     }
 
+    /**
+     * Packet is sent through upstream coalescer if it is used, so it does not overtake coalesced batches.
+     */
+    private static void sendPacket(BedrockSession session, BedrockPacket packet) {
+        BatchCoalescer coalescer = BatchCoalescer.of(session);
+        if (coalescer == null) {
+            session.sendPacket(packet);
+        } else {
+            coalescer.addPacket(packet);
+        }
+    }
+
+    private static void sendPacketImmediately(BedrockSession session, BedrockPacket packet) {
+        BatchCoalescer coalescer = BatchCoalescer.of(session);
+        if (coalescer != null) {
+            coalescer.flush();
+        }
+        session.sendPacketImmediately(packet);
+    }
+
     public static long rewriteId(long from, long rewritten, long origin) {
         return from == origin ? rewritten : (from == rewritten ? origin : from);
     }
@@ -49,78 +74,111 @@ public class PlayerRewriteUtils {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createChunkPublisherUpdate(defaultSpawn, radius));
+    }
+
+    public static NetworkChunkPublisherUpdatePacket createChunkPublisherUpdate(Vector3i defaultSpawn, int radius) {
         NetworkChunkPublisherUpdatePacket packet = new NetworkChunkPublisherUpdatePacket();
         packet.setPosition(defaultSpawn);
         packet.setRadius(radius);
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectGameMode(BedrockSession session, GameType gameMode) {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createGameMode(gameMode));
+    }
+
+    public static SetPlayerGameTypePacket createGameMode(GameType gameMode) {
         SetPlayerGameTypePacket packet = new SetPlayerGameTypePacket();
         packet.setGamemode(gameMode.ordinal());
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectGameRules(BedrockSession session, List<GameRuleData<?>> gameRules) {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createGameRules(gameRules));
+    }
+
+    public static GameRulesChangedPacket createGameRules(List<GameRuleData<?>> gameRules) {
         GameRulesChangedPacket packet = new GameRulesChangedPacket();
         packet.getGameRules().addAll(gameRules);
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectClearWeather(BedrockSession session) {
         if (session == null || session.isClosed()){
             return;
         }
+        List<BedrockPacket> packets = createClearWeather();
+        sendPacketImmediately(session, packets.get(0));
+        sendPacket(session, packets.get(1));
+    }
+
+    public static List<BedrockPacket> createClearWeather() {
         LevelEventPacket stopRain = new LevelEventPacket();
         stopRain.setType(LevelEventType.STOP_RAINING);
         stopRain.setData(10000);
         stopRain.setPosition(Vector3f.ZERO);
-        session.sendPacketImmediately(stopRain);
 
         LevelEventPacket stopThunder = new LevelEventPacket();
         stopThunder.setData(0);
         stopThunder.setPosition(Vector3f.ZERO);
         stopThunder.setType(LevelEventType.STOP_THUNDERSTORM);
-        session.sendPacket(stopThunder);
+        return Arrays.asList(stopRain, stopThunder);
     }
 
     public static void injectSetDifficulty(BedrockSession session, int difficulty) {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createSetDifficulty(difficulty));
+    }
+
+    public static SetDifficultyPacket createSetDifficulty(int difficulty) {
         SetDifficultyPacket packet = new SetDifficultyPacket();
         packet.setDifficulty(difficulty);
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectRemoveEntityLink(BedrockSession session, long vehicleId, long riderId) {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createRemoveEntityLink(vehicleId, riderId));
+    }
+
+    public static SetEntityLinkPacket createRemoveEntityLink(long vehicleId, long riderId) {
         SetEntityLinkPacket packet = new SetEntityLinkPacket();
         packet.setEntityLink(new EntityLinkData(vehicleId, riderId, EntityLinkData.Type.REMOVE, false, false));
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectRemoveEntity(BedrockSession session, long runtimeId) {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createRemoveEntity(runtimeId));
+    }
+
+    public static RemoveEntityPacket createRemoveEntity(long runtimeId) {
         RemoveEntityPacket packet = new RemoveEntityPacket();
         packet.setUniqueEntityId(runtimeId);
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectRemoveAllPlayers(BedrockSession session, Collection<UUID> playerList) {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createRemoveAllPlayers(playerList));
+    }
+
+    public static PlayerListPacket createRemoveAllPlayers(Collection<UUID> playerList) {
         PlayerListPacket packet = new PlayerListPacket();
         packet.setAction(PlayerListPacket.Action.REMOVE);
         List<PlayerListPacket.Entry> entries = new ArrayList<>();
@@ -128,60 +186,115 @@ public class PlayerRewriteUtils {
             entries.add(new PlayerListPacket.Entry(uuid));
         }
         packet.getEntries().addAll(entries);
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectRemoveAllEffects(BedrockSession session, long runtimeId) {
         if (session == null || session.isClosed()){
             return;
         }
+        for (BedrockPacket packet : createRemoveAllEffects(runtimeId)) {
+            sendPacket(session, packet);
+        }
+    }
+
+    public static List<BedrockPacket> createRemoveAllEffects(long runtimeId) {
+        List<BedrockPacket> packets = new ArrayList<>(29);
         for (int i = 0; i < 28; i++) {
-            injectRemoveEntityEffect(session, runtimeId, i);
+            packets.add(createRemoveEntityEffect(runtimeId, i));
+        }
+        SetEntityDataPacket packet = new SetEntityDataPacket();
+        packet.getMetadata().putShort(EntityData.POTION_AUX_VALUE, 0);
+        packet.getMetadata().putInt(EntityData.EFFECT_COLOR, 0);
+        packet.getMetadata().putByte(EntityData.EFFECT_AMBIENT, (byte) 0);
+        packet.setRuntimeEntityId(runtimeId);
+        packets.add(packet);
+        return packets;
+    }
+
+    /**
+     * Creates packets removing only given effects.
+     * @param effects ids of active effects, ids which are not supported by the protocol are ignored.
+     * @return empty list if no effect is active.
+     */
+    public static List<BedrockPacket> createRemoveEffects(long runtimeId, BitSet effects, ProtocolVersion protocol) {
+        int maxEffectId = getMaxEffectId(protocol);
+        List<BedrockPacket> packets = new ArrayList<>(effects.cardinality() + 1);
+        for (int i = effects.nextSetBit(0); i >= 0 && i <= maxEffectId; i = effects.nextSetBit(i + 1)) {
+            packets.add(createRemoveEntityEffect(runtimeId, i));
+        }
+
+        if (packets.isEmpty()) {
+            return packets;
         }
         SetEntityDataPacket packet = new SetEntityDataPacket();
         packet.getMetadata().putShort(EntityData.POTION_AUX_VALUE, 0);
         packet.getMetadata().putInt(EntityData.EFFECT_COLOR, 0);
         packet.getMetadata().putByte(EntityData.EFFECT_AMBIENT, (byte) 0);
         packet.setRuntimeEntityId(runtimeId);
-        session.sendPacket(packet);
+        packets.add(packet);
+        return packets;
+    }
+
+    /**
+     * Bad Omen and Hero of the Village were added in 1.11.
+     */
+    public static int getMaxEffectId(ProtocolVersion protocol) {
+        return protocol.getProtocol() >= ProtocolVersion.MINECRAFT_PE_1_11.getProtocol() ? 29 : 27;
     }
 
     public static void injectRemoveEntityEffect(BedrockSession session, long runtimeId, int effect) {
+        sendPacket(session, createRemoveEntityEffect(runtimeId, effect));
+    }
+
+    public static MobEffectPacket createRemoveEntityEffect(long runtimeId, int effect) {
         MobEffectPacket packet = new MobEffectPacket();
         packet.setRuntimeEntityId(runtimeId);
         packet.setEffectId(effect);
         packet.setEvent(MobEffectPacket.Event.REMOVE);
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectRemoveObjective(BedrockSession session, String objectiveId) {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createRemoveObjective(objectiveId));
+    }
+
+    public static RemoveObjectivePacket createRemoveObjective(String objectiveId) {
         RemoveObjectivePacket packet = new RemoveObjectivePacket();
         packet.setObjectiveId(objectiveId);
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectRemoveBossbar(BedrockSession session, long bossbarId) {
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createRemoveBossbar(bossbarId));
+    }
+
+    public static BossEventPacket createRemoveBossbar(long bossbarId) {
         BossEventPacket packet = new BossEventPacket();
         packet.setAction(BossEventPacket.Action.REMOVE);
         packet.setBossUniqueEntityId(bossbarId);
-        session.sendPacket(packet);
+        return packet;
     }
 
     public static void injectPosition(BedrockSession session, Vector3f position, Vector3f rotation, long runtimeId){
         if (session == null || session.isClosed()){
             return;
         }
+        sendPacket(session, createPosition(position, rotation, runtimeId));
+    }
+
+    public static MovePlayerPacket createPosition(Vector3f position, Vector3f rotation, long runtimeId) {
         MovePlayerPacket packet = new MovePlayerPacket();
         packet.setPosition(position);
         packet.setRuntimeEntityId(runtimeId);
         packet.setRotation(rotation);
         packet.setMode(MovePlayerPacket.Mode.RESPAWN);
-        session.sendPacket(packet);
+        return packet;
     }
 }
@@ -24,16 +24,21 @@ import dev.waterdog.command.CommandSender;
 import dev.waterdog.event.defaults.*;
 import dev.waterdog.logger.MainLogger;
 import dev.waterdog.network.ServerInfo;
+import dev.waterdog.network.bridge.BatchCoalescer;
 import dev.waterdog.network.bridge.DownstreamBridge;
+import dev.waterdog.network.bridge.EgressScheduler;
 import dev.waterdog.network.bridge.TransferBatchBridge;
 import dev.waterdog.network.bridge.UpstreamBridge;
+import dev.waterdog.network.downstream.ConnectedDownstreamHandler;
 import dev.waterdog.network.downstream.InitialHandler;
 import dev.waterdog.network.downstream.SwitchDownstreamHandler;
+import dev.waterdog.network.protocol.PacketInterest;
 import dev.waterdog.network.protocol.ProtocolVersion;
 import dev.waterdog.network.rewrite.RewriteMaps;
 import dev.waterdog.network.rewrite.types.RewriteData;
 import dev.waterdog.network.session.LoginData;
 import dev.waterdog.network.session.PendingConnection;
+import dev.waterdog.network.session.PreConnection;
 import dev.waterdog.network.session.ServerConnection;
 import dev.waterdog.network.session.SessionInjections;
 import dev.waterdog.utils.types.PacketHandler;
@@ -44,11 +49,13 @@ import it.unimi.dsi.fastutil.longs.*;
 import it.unimi.dsi.fastutil.objects.*;
 
 import java.net.InetSocketAddress;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -66,12 +73,17 @@ public class ProxiedPlayer implements CommandSender {
     private final RewriteMaps rewriteMaps;
     private final LongSet entities = new LongOpenHashSet();
     private final LongSet bossbars = new LongOpenHashSet();
+    /**
+     * Ids of effects applied on the player by downstream server.
+     */
+    private final BitSet activeEffects = new BitSet();
     private final ObjectSet<UUID> players = new ObjectOpenHashSet<>();
     private final ObjectSet<String> scoreboards = new ObjectOpenHashSet<>();
     private final Long2LongMap entityLinks = new Long2LongOpenHashMap();
     private final Object2ObjectMap<String, Permission> permissions = new Object2ObjectOpenHashMap<>();
     private ServerConnection serverConnection;
     private PendingConnection pendingConnection;
+    private PreConnection preConnection;
     private boolean admin = false;
     /**
      * Signalizes if connection bridges can do entity and block rewrite.
@@ -97,12 +109,30 @@ public class ProxiedPlayer implements CommandSender {
      */
     private PacketHandler pluginUpstreamHandler = null;
     private PacketHandler pluginDownstreamHandler = null;
+    /**
+     * Fast codec does not decode packets which are not inspected by proxy.
+     * If plugin handler is interested in such packets, default codec is used for both connections.
+     */
+    private volatile boolean decodeAllPackets = false;
+    /**
+     * Merges batches sent to upstream by downstream bridges. Null if batch coalescing is disabled.
+     */
+    private final BatchCoalescer upstreamCoalescer;
+    /**
+     * Sends latency sensitive packets ahead of bulk data. Null if bulk budget is not set.
+     */
+    private final EgressScheduler egressScheduler;
 
     public ProxiedPlayer(ProxyServer proxy, BedrockServerSession session, LoginData loginData) {
         this.proxy = proxy;
         this.upstream = session;
         this.loginData = loginData;
         this.rewriteMaps = new RewriteMaps(this);
+        int batchWindow = proxy.getConfiguration().getUpstreamBatchWindow();
+        this.upstreamCoalescer = batchWindow > 0 ? new BatchCoalescer(session, batchWindow, proxy.getConfiguration().getUpstreamBatchMaxSize()) : null;
+        int bulkBudget = proxy.getConfiguration().getUpstreamBulkBudget();
+        int congestionThreshold = proxy.getConfiguration().getMovementCoalescingThreshold();
+        this.egressScheduler = bulkBudget > 0 ? new EgressScheduler(this, session, bulkBudget, congestionThreshold) : null;
         this.proxy.getPlayerManager().subscribePermissions(this);
     }
 
@@ -125,7 +155,7 @@ public class ProxiedPlayer implements CommandSender {
             this.initialConnect();
             return;
         }
-        this.upstream.sendPacket(event.getPacket());
+        this.sendPacket(event.getPacket());
     }
 
     /**
@@ -196,11 +226,24 @@ public class ProxiedPlayer implements CommandSender {
             this.getLogger().debug("Discarding pending connection for "+this.getName()+"! Tried to join "+oldPendingConnection.getInfo().getServerName());
         }
 
+        PreConnection preConnection = this.getPreConnection();
+        if (preConnection != null && this.clearPreConnection(preConnection)) {
+            if (preConnection.getInfo() == targetServer && preConnection.isReady()) {
+                this.setPendingConnection(preConnection);
+                BedrockClient client = preConnection.getClient();
+                SessionInjections.injectNewDownstream(client.getSession(), this, targetServer, client);
+                preConnection.activate();
+                this.getLogger().debug("[" + this.getAddress() + "|" + this.getName() + "] -> Using prepared connection to " + targetServer.getServerName());
+                return;
+            }
+            preConnection.close();
+        }
+
         PendingConnection pendingConnection = new PendingConnection(targetServer);
         this.setPendingConnection(pendingConnection);
 
         CompletableFuture<BedrockClient> future = this.proxy.bindClient(this.getProtocol());
-        future.thenAccept(client -> client.connect(targetServer.getAddress()).whenComplete((downstream, error) -> {
+        future.thenAccept(client -> this.proxy.getClientManager().connect(client, targetServer.getAddress()).whenComplete((downstream, error) -> {
             if (this.disconnected.get()) {
                 client.close();
                 this.getLogger().debug("Discarding downstream connection: Player " + this.getName() +" disconnected!");
@@ -213,21 +256,34 @@ public class ProxiedPlayer implements CommandSender {
             }
 
             pendingConnection.setClient(client);
+            // Success is recorded once StartGamePacket is received
+            downstream.addDisconnectHandler(reason -> {
+                if (!pendingConnection.isClosed() && !this.disconnected.get() && !(downstream.getPacketHandler() instanceof ConnectedDownstreamHandler)) {
+                    targetServer.getCircuitBreaker().recordFailure();
+                }
+            });
 
             if (this.serverConnection == null) {
                 this.serverConnection = new ServerConnection(client, downstream, targetServer);
                 targetServer.addPlayer(this);
+                this.setPendingConnection(null);
 
                 downstream.setPacketHandler(new InitialHandler(this));
                 downstream.setBatchHandler(new DownstreamBridge(this, this.upstream));
                 this.upstream.setBatchHandler(new UpstreamBridge(this, downstream));
                 this.hasUpstreamBridge = true;
             } else {
+                TransferBatchBridge bridge = new TransferBatchBridge(this, this.upstream);
+                pendingConnection.setBridge(bridge);
                 downstream.setPacketHandler(new SwitchDownstreamHandler(this, targetServer, client));
-                downstream.setBatchHandler(new TransferBatchBridge(this, this.upstream));
+                downstream.setBatchHandler(bridge);
+                downstream.addDisconnectHandler(reason -> {
+                    this.clearPendingConnection(pendingConnection);
+                    bridge.release();
+                });
             }
 
-            downstream.setPacketCodec(this.getProtocol().getCodec());
+            downstream.setPacketCodec(this.getPacketCodec());
             downstream.sendPacketImmediately(this.loginData.getLoginPacket());
             downstream.setLogging(true);
 
@@ -240,8 +296,89 @@ public class ProxiedPlayer implements CommandSender {
         });
     }
 
+    /**
+     * Opens connection to downstream server in advance, so later transfer to the server is faster.
+     * Connection is closed if it is not used within default expiry.
+     *
+     * @param serverInfo ServerInfo of the target downstream server
+     */
+    public void preconnect(ServerInfo serverInfo) {
+        this.preconnect(serverInfo, PreConnection.DEFAULT_EXPIRY);
+    }
+
+    /**
+     * Opens connection to downstream server in advance. Login and resource pack negotiation are completed
+     * and connection is held right before the world is started until the player is transferred using connect().
+     * Only one prepared connection is kept, previous one is closed.
+     *
+     * @param serverInfo ServerInfo of the target downstream server
+     * @param expiry time in milliseconds after which unused connection is closed
+     */
+    public void preconnect(ServerInfo serverInfo, long expiry) {
+        Preconditions.checkNotNull(serverInfo, "Server info can not be null!");
+        if (this.serverConnection == null || this.serverConnection.getInfo() == serverInfo) {
+            // Player has to be connected to be able to switch servers
+            return;
+        }
+
+        PreConnection oldPreConnection = this.getPreConnection();
+        if (oldPreConnection != null) {
+            if (oldPreConnection.getInfo() == serverInfo) {
+                return;
+            }
+            this.clearPreConnection(oldPreConnection);
+            oldPreConnection.close();
+        }
+
+        PreConnection preConnection = new PreConnection(serverInfo);
+        this.setPreConnection(preConnection);
+
+        CompletableFuture<BedrockClient> future = this.proxy.bindClient(this.getProtocol());
+        future.thenAccept(client -> this.proxy.getClientManager().connect(client, serverInfo.getAddress()).whenComplete((downstream, error) -> {
+            if (error != null || this.disconnected.get() || this.getPreConnection() != preConnection) {
+                client.close();
+                this.clearPreConnection(preConnection);
+                if (error != null) {
+                    this.getLogger().debug("[" + this.getAddress() + "|" + this.getName() + "] Unable to prepare connection to " + serverInfo.getServerName(), error);
+                }
+                return;
+            }
+
+            TransferBatchBridge bridge = new TransferBatchBridge(this, this.upstream, true);
+            preConnection.setClient(client);
+            preConnection.setBridge(bridge);
+
+            downstream.setPacketHandler(new SwitchDownstreamHandler(this, serverInfo, client));
+            downstream.setBatchHandler(bridge);
+            downstream.setPacketCodec(this.getPacketCodec());
+            downstream.setCompressionLevel(this.proxy.getConfiguration().getDownstreamCompression());
+            downstream.sendPacketImmediately(this.loginData.getLoginPacket());
+            downstream.setLogging(true);
+            downstream.addDisconnectHandler(reason -> {
+                if (this.clearPreConnection(preConnection)) {
+                    preConnection.close();
+                }
+                // Prepared connection could be already used by transfer
+                this.clearPendingConnection(preConnection);
+                bridge.release();
+            });
+
+            downstream.getEventLoop().schedule(() -> {
+                if (this.clearPreConnection(preConnection)) {
+                    preConnection.close();
+                    this.getLogger().debug("[" + this.getAddress() + "|" + this.getName() + "] Prepared connection to " + serverInfo.getServerName() + " has expired");
+                }
+            }, expiry, TimeUnit.MILLISECONDS);
+        })).whenComplete((ignore, error) -> {
+            if (error != null && this.clearPreConnection(preConnection)) {
+                this.getLogger().debug("[" + this.getAddress() + "|" + this.getName() + "] Unable to prepare connection to " + serverInfo.getServerName(), error);
+            }
+        });
+    }
+
     private void connectFailure(BedrockClient client, ServerInfo targetServer, Throwable error) {
         this.getLogger().debug("[" + this.getAddress() + "|" + this.getName() + "] Unable to connect to downstream " + targetServer.getServerName(), error);
+        targetServer.getCircuitBreaker().recordFailure();
         this.setPendingConnection(null);
         if (client != null) {
             client.close();
@@ -294,6 +431,9 @@ public class ProxiedPlayer implements CommandSender {
         this.proxy.getEventManager().callEvent(event);
 
         if (this.upstream != null && !this.upstream.isClosed()) {
+            if (this.upstreamCoalescer != null) {
+                this.upstreamCoalescer.flush();
+            }
             this.upstream.disconnect(reason);
         }
 
@@ -305,6 +445,12 @@ public class ProxiedPlayer implements CommandSender {
         PendingConnection pendingConnection = this.getPendingConnection();
         if (pendingConnection != null) {
             pendingConnection.close();
+            this.setPendingConnection(null);
+        }
+
+        PreConnection preConnection = this.getPreConnection();
+        if (preConnection != null && this.clearPreConnection(preConnection)) {
+            preConnection.close();
         }
 
         this.proxy.getPlayerManager().removePlayer(this);
@@ -330,6 +476,7 @@ public class ProxiedPlayer implements CommandSender {
 
     public void onDownstreamTimeout() {
         ServerInfo serverInfo = this.getServerInfo();
+        serverInfo.getCircuitBreaker().recordFailure();
         if (!this.sendToFallback(serverInfo, "Downstream Timeout")) {
             this.disconnect(new TranslationContainer("waterdog.downstream.down", serverInfo.getServerName(), "Timeout"));
         }
@@ -341,7 +488,14 @@ public class ProxiedPlayer implements CommandSender {
      * @param packet the packet to send
      */
     public void sendPacket(BedrockPacket packet) {
-        if (this.upstream != null && !this.upstream.isClosed()) {
+        if (this.upstream == null || this.upstream.isClosed()) {
+            return;
+        }
+
+        // Packet must not overtake batches which are still coalesced
+        if (this.upstreamCoalescer != null) {
+            this.upstreamCoalescer.addPacket(packet);
+        } else {
             this.upstream.sendPacket(packet);
         }
     }
@@ -631,9 +785,52 @@ public class ProxiedPlayer implements CommandSender {
     }
 
     public synchronized void setPendingConnection(PendingConnection pendingConnection) {
+        if (this.pendingConnection == pendingConnection) {
+            return;
+        }
+
+        // Pending connections are counted to server load, so login bursts are spread across servers
+        if (this.pendingConnection != null) {
+            this.pendingConnection.getInfo().removePendingConnection();
+        }
+        if (pendingConnection != null) {
+            pendingConnection.getInfo().addPendingConnection();
+        }
         this.pendingConnection = pendingConnection;
     }
 
+    public synchronized PreConnection getPreConnection() {
+        return this.preConnection;
+    }
+
+    private synchronized void setPreConnection(PreConnection preConnection) {
+        this.preConnection = preConnection;
+    }
+
+    /**
+     * Removes pending connection if it was not replaced meanwhile. Connection is not closed.
+     * @return if the connection was removed
+     */
+    public synchronized boolean clearPendingConnection(PendingConnection pendingConnection) {
+        if (this.pendingConnection != pendingConnection) {
+            return false;
+        }
+        this.setPendingConnection(null);
+        return true;
+    }
+
+    /**
+     * Removes prepared connection if it was not replaced meanwhile. Connection is not closed.
+     * @return if the connection was removed
+     */
+    public synchronized boolean clearPreConnection(PreConnection preConnection) {
+        if (this.preConnection != preConnection) {
+            return false;
+        }
+        this.preConnection = null;
+        return true;
+    }
+
     public BedrockServerSession getUpstream() {
         return this.upstream;
     }
@@ -691,6 +888,10 @@ public class ProxiedPlayer implements CommandSender {
         return this.bossbars;
     }
 
+    public BitSet getActiveEffects() {
+        return this.activeEffects;
+    }
+
     public Collection<UUID> getPlayers() {
         return this.players;
     }
@@ -703,12 +904,21 @@ public class ProxiedPlayer implements CommandSender {
         return this.entityLinks;
     }
 
+    public BatchCoalescer getUpstreamCoalescer() {
+        return this.upstreamCoalescer;
+    }
+
+    public EgressScheduler getEgressScheduler() {
+        return this.egressScheduler;
+    }
+
     public PacketHandler getPluginUpstreamHandler() {
         return this.pluginUpstreamHandler;
     }
 
     public void setPluginUpstreamHandler(PacketHandler pluginUpstreamHandler) {
         this.pluginUpstreamHandler = pluginUpstreamHandler;
+        this.checkPacketInterest(pluginUpstreamHandler);
     }
 
     public PacketHandler getPluginDownstreamHandler() {
@@ -717,6 +927,31 @@ public class ProxiedPlayer implements CommandSender {
 
     public void setPluginDownstreamHandler(PacketHandler pluginDownstreamHandler) {
         this.pluginDownstreamHandler = pluginDownstreamHandler;
+        this.checkPacketInterest(pluginDownstreamHandler);
+    }
+
+    /**
+     * Packets decoded from one connection are encoded to the other one, so both connections must use same codec.
+     * @param handler plugin handler which is going to be used.
+     */
+    private void checkPacketInterest(PacketHandler handler) {
+        if (handler == null || this.decodeAllPackets || PacketInterest.isCovered(handler.getClass(), this.getProtocol())) {
+            return;
+        }
+
+        this.decodeAllPackets = true;
+        this.getLogger().debug("Plugin handler " + handler.getClass().getName() + " requires default codec for " + this.getName());
+        this.upstream.setPacketCodec(this.getPacketCodec());
+        if (this.serverConnection != null) {
+            this.serverConnection.getDownstream().setPacketCodec(this.getPacketCodec());
+        }
+    }
+
+    /**
+     * @return codec which should be used by both upstream and downstream connection.
+     */
+    public BedrockPacketCodec getPacketCodec() {
+        return this.decodeAllPackets ? this.getProtocol().getDefaultCodec() : this.getProtocol().getCodec();
     }
 
     public void setAcceptPlayStatus(boolean acceptPlayStatus) {
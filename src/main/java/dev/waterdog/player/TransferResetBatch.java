@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.player;
+
+import com.nukkitx.protocol.bedrock.BedrockPacket;
+import com.nukkitx.protocol.bedrock.BedrockSession;
+import dev.waterdog.network.bridge.BatchCoalescer;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects packets which reset client-sided state when switching servers.
+ * All packets are sent to upstream at once as single batch instead of being queued one by one.
+ * Packets are usually created using PlayerRewriteUtils.
+ */
+public class TransferResetBatch {
+
+    private static final AtomicLong TOTAL_RESETS = new AtomicLong();
+    private static final AtomicLong TOTAL_PACKETS = new AtomicLong();
+    private static final AtomicInteger LAST_SIZE = new AtomicInteger();
+
+    private final List<BedrockPacket> packets;
+
+    /**
+     * @param expectedSize expected count of packets.
+     */
+    public TransferResetBatch(int expectedSize) {
+        this.packets = new ObjectArrayList<>(expectedSize);
+    }
+
+    public TransferResetBatch add(BedrockPacket packet) {
+        this.packets.add(packet);
+        return this;
+    }
+
+    public TransferResetBatch addAll(Collection<BedrockPacket> packets) {
+        this.packets.addAll(packets);
+        return this;
+    }
+
+    /**
+     * Sends collected packets to upstream. Pending coalesced batches are flushed before to keep packet order.
+     */
+    public void send(ProxiedPlayer player) {
+        BedrockSession session = player.getUpstream();
+        if (session == null || session.isClosed() || this.packets.isEmpty()) {
+            return;
+        }
+
+        BatchCoalescer coalescer = player.getUpstreamCoalescer();
+        if (coalescer != null) {
+            coalescer.flush();
+        }
+        session.sendWrapped(this.packets, session.isEncrypted());
+
+        TOTAL_RESETS.incrementAndGet();
+        TOTAL_PACKETS.addAndGet(this.packets.size());
+        LAST_SIZE.set(this.packets.size());
+    }
+
+    public int size() {
+        return this.packets.size();
+    }
+
+    public List<BedrockPacket> getPackets() {
+        return this.packets;
+    }
+
+    /**
+     * @return count of transfer resets sent since start.
+     */
+    public static long getTotalResetCount() {
+        return TOTAL_RESETS.get();
+    }
+
+    /**
+     * @return count of packets sent by all transfer resets since start.
+     */
+    public static long getTotalPacketCount() {
+        return TOTAL_PACKETS.get();
+    }
+
+    /**
+     * @return count of packets sent by last transfer reset.
+     */
+    public static int getLastSize() {
+        return LAST_SIZE.get();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.player;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Encryption key and signed handshake jwt prepared for upstream connection.
+ */
+public class UpstreamEncryption {
+
+    private final SecretKey key;
+    private final String jwt;
+
+    public UpstreamEncryption(SecretKey key, String jwt) {
+        this.key = key;
+        this.jwt = jwt;
+    }
+
+    public SecretKey getKey() {
+        return this.key;
+    }
+
+    public String getJwt() {
+        return this.jwt;
+    }
+}
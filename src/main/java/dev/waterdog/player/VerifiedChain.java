@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.player;
+
+import java.security.interfaces.ECPublicKey;
+
+/**
+ * Result of login certificate chain verification.
+ */
+public class VerifiedChain {
+
+    private final boolean xboxAuthed;
+    private final ECPublicKey identityPublicKey;
+    private final long expiration;
+
+    public VerifiedChain(boolean xboxAuthed, ECPublicKey identityPublicKey, long expiration) {
+        this.xboxAuthed = xboxAuthed;
+        this.identityPublicKey = identityPublicKey;
+        this.expiration = expiration;
+    }
+
+    /**
+     * @return if the chain is signed by Mojang and all certificates are signed by previous certificate.
+     */
+    public boolean isXboxAuthed() {
+        return this.xboxAuthed;
+    }
+
+    /**
+     * @return identity public key of the last certificate in chain.
+     */
+    public ECPublicKey getIdentityPublicKey() {
+        return this.identityPublicKey;
+    }
+
+    /**
+     * @return time in milliseconds when first certificate of the chain expires or 0 if expiration is missing.
+     */
+    public long getExpiration() {
+        return this.expiration;
+    }
+
+    public boolean isExpired() {
+        return this.expiration <= System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.player;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import dev.waterdog.ProxyServer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cache of verified login certificate chains, so reconnecting players do not need to verify all chain signatures again.
+ * Chains are identified by SHA-256 digest of their raw certificates and are cached until first certificate expires.
+ */
+public class VerifiedChainCache {
+
+    private static final Cache<String, VerifiedChain> chainCache = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(0, ProxyServer.getInstance().getConfiguration().getChainCacheSize()))
+            .build();
+
+    /**
+     * @return verified chain with given digest or null if it was not cached or has expired.
+     */
+    public static VerifiedChain get(String digest) {
+        VerifiedChain chain = chainCache.getIfPresent(digest);
+        if (chain != null && chain.isExpired()) {
+            chainCache.invalidate(digest);
+            return null;
+        }
+        return chain;
+    }
+
+    public static void put(String digest, VerifiedChain chain) {
+        if (!chain.isExpired()) {
+            chainCache.put(digest, chain);
+        }
+    }
+
+    public static long size() {
+        return chainCache.size();
+    }
+
+    public static String createDigest(JsonArray chainArray) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+
+        for (JsonElement element : chainArray) {
+            messageDigest.update(element.getAsString().getBytes(StandardCharsets.US_ASCII));
+            // Separator makes sure different splits of same data have different digest
+            messageDigest.update((byte) '\n');
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (byte b : messageDigest.digest()) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
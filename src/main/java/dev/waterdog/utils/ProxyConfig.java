@@ -46,6 +46,18 @@ public class ProxyConfig extends YamlConfig {
     @Comment("The server priority list. if not changed by plugins, the proxy will connect the player to the first of those servers")
     private List<String> priorities = new ArrayList<>(Collections.singletonList("lobby1"));
 
+    @Path("listener.join_strategy")
+    @Comment("How the initial server is chosen from priority list: first, least_connections, weighted or power_of_two")
+    private String joinStrategy = "first";
+
+    @Path("listener.server_weights")
+    @Comment("Weights of servers used by weighted and power_of_two join strategies. Servers without weight have weight 1")
+    private Map<String, Integer> serverWeights = new HashMap<>();
+
+    @Path("listener.fallback_servers")
+    @Comment("Servers to which players are sent if their server goes down or kicks them. Least loaded available server is chosen. Leave empty to disable")
+    private List<String> fallbackServers = new ArrayList<>();
+
     @Path("listener.host")
     @Comment("The address to bind the server to")
     private InetSocketAddress bindAddress = new InetSocketAddress("0.0.0.0", 19132);
@@ -109,18 +121,102 @@ public class ProxyConfig extends YamlConfig {
     @Comment("Fast-codec only decodes the packets required by the proxy, everything else will be passed rawly. Disabling this can create a performance hit")
     private boolean fastCodec = true;
 
+    @Path("identity_entity_id")
+    @Comment("If enabled, client will use same entity id as first downstream server. Entity ids are not rewritten until first transfer")
+    private boolean identityEntityId = false;
+
     @Path("inject_proxy_commands")
     @Comment("If enabled, the proxy will inject all the proxy commands in the AvailableCommandsPacket, enabling autocompletion")
     private boolean injectCommands = true;
 
     @Path("upstream_compression_level")
-    @Comment("Upstream server compression ratio(proxy to client), higher = less bandwidth, more cpu, lower vice versa")
+    @Comment("Upstream server compression ratio(proxy to client), higher = less bandwidth, more cpu, lower vice versa. Only applies to batches changed by proxy, others are forwarded as received")
     private int upstreamCompression = 6;
 
     @Path("downstream_compression_level")
-    @Comment("Upstream server compression ratio(proxy to downstream server), higher = less bandwidth, more cpu, lower vice versa")
+    @Comment("Upstream server compression ratio(proxy to downstream server), higher = less bandwidth, more cpu, lower vice versa. Only applies to batches changed by proxy, others are forwarded as received")
     private int downstreamCompression = 2;
 
+    @Path("upstream_batch_window")
+    @Comment("Batches sent to client within this time window in milliseconds are merged into single batch. Merged batches are recompressed. Set to 0 to disable")
+    private int upstreamBatchWindow = 0;
+
+    @Path("upstream_batch_max_size")
+    @Comment("Merged batch is sent immediately once its uncompressed size in bytes exceeds this value")
+    private int upstreamBatchMaxSize = 1024 * 1024;
+
+    @Path("upstream_bulk_budget")
+    @Comment("Bulk world data sent to client is split into parts of this size in bytes, movement and chat packets are sent ahead of it. Set to 0 to disable")
+    private int upstreamBulkBudget = 0;
+
+    @Path("movement_coalescing_threshold")
+    @Comment("If bulk data waiting to be sent to client exceeds this size in bytes, only latest movement and state packet per entity is sent. Requires upstream_bulk_budget. Set to 0 to disable")
+    private int movementCoalescingThreshold = 0;
+
+    @Path("transfer_queue_budget")
+    @Comment("Maximum size of packets in bytes queued for one player while switching servers. Set to 0 to disable")
+    private int transferQueueBudget = 4 * 1024 * 1024;
+
+    @Path("transfer_queue_global_budget")
+    @Comment("Maximum size of packets in bytes queued for all players while switching servers. Set to 0 to disable")
+    private long transferQueueGlobalBudget = 256 * 1024 * 1024;
+
+    @Path("transfer_queue_fallback")
+    @Comment("If transfer queue exceeds its budget, transfer is aborted on first packet which does not fit. Otherwise sound and particle packets are dropped before aborting")
+    private boolean transferQueueFallback = false;
+
+    @Path("health_check_interval")
+    @Comment("Interval in seconds in which all servers are pinged to check their health. Set to 0 to disable")
+    private int healthCheckInterval = 0;
+
+    @Path("health_check_timeout")
+    @Comment("Time in milliseconds after which health check ping fails")
+    private int healthCheckTimeout = 2000;
+
+    @Path("health_check_degraded_rtt")
+    @Comment("Server with average ping time above this value in milliseconds is considered degraded")
+    private int healthCheckDegradedRtt = 250;
+
+    @Path("health_check_down_failures")
+    @Comment("Count of consecutive failed pings after which server is considered down")
+    private int healthCheckDownFailures = 3;
+
+    @Path("crypto_threads")
+    @Comment("Count of threads verifying logins and doing encryption handshakes. Set to 0 to use half of available processors")
+    private int cryptoThreads = 0;
+
+    @Path("crypto_queue_size")
+    @Comment("Maximum count of queued login and handshake tasks. Players logging in while the queue is full are disconnected")
+    private int cryptoQueueSize = 1024;
+
+    @Path("chain_cache_size")
+    @Comment("Maximum count of verified login certificate chains cached for reconnecting players. Set to 0 to disable")
+    private int chainCacheSize = 4096;
+
+    @Path("keypair_pool_size")
+    @Comment("Count of key pairs for player login data generated in advance. Set to 0 to generate them while player logs in")
+    private int keyPairPoolSize = 32;
+
+    @Path("mass_transfer_concurrency")
+    @Comment("Maximum count of players transferred by /wdsend to one server at the same time. Set to 0 to disable")
+    private int massTransferConcurrency = 0;
+
+    @Path("mass_transfer_rate")
+    @Comment("Maximum count of players transferred by /wdsend to one server per second. Set to 0 to disable")
+    private int massTransferRate = 0;
+
+    @Path("mass_transfer_jitter")
+    @Comment("Maximum random delay in milliseconds added to each transfer started by /wdsend")
+    private int massTransferJitter = 0;
+
+    @Path("circuit_breaker_failures")
+    @Comment("Count of consecutive failed connections after which server is not used as fallback server")
+    private int circuitBreakerFailures = 5;
+
+    @Path("circuit_breaker_open_time")
+    @Comment("Time in milliseconds after which single connection to failing server is tried again")
+    private int circuitBreakerOpenTime = 10000;
+
     @Path("enable_packs")
     @Comment("Enable/Disable the resource pack system")
     private boolean enableResourcePacks = true;
@@ -197,6 +293,14 @@ public class ProxyConfig extends YamlConfig {
         return this.fastCodec;
     }
 
+    public boolean useIdentityEntityId() {
+        return this.identityEntityId;
+    }
+
+    public void setUseIdentityEntityId(boolean identityEntityId) {
+        this.identityEntityId = identityEntityId;
+    }
+
     public void setUseFastTransfer(boolean fastTransfer) {
         this.fastTransfer = fastTransfer;
     }
@@ -213,6 +317,18 @@ public class ProxyConfig extends YamlConfig {
         return this.priorities;
     }
 
+    public String getJoinStrategy() {
+        return this.joinStrategy;
+    }
+
+    public Map<String, Integer> getServerWeights() {
+        return this.serverWeights;
+    }
+
+    public List<String> getFallbackServers() {
+        return this.fallbackServers;
+    }
+
     public Map<String, String> getForcedHosts() {
         return this.forcedHosts;
     }
@@ -237,6 +353,86 @@ public class ProxyConfig extends YamlConfig {
         return this.downstreamCompression;
     }
 
+    public int getUpstreamBatchWindow() {
+        return this.upstreamBatchWindow;
+    }
+
+    public int getUpstreamBatchMaxSize() {
+        return this.upstreamBatchMaxSize;
+    }
+
+    public int getUpstreamBulkBudget() {
+        return this.upstreamBulkBudget;
+    }
+
+    public int getMovementCoalescingThreshold() {
+        return this.movementCoalescingThreshold;
+    }
+
+    public int getTransferQueueBudget() {
+        return this.transferQueueBudget;
+    }
+
+    public long getTransferQueueGlobalBudget() {
+        return this.transferQueueGlobalBudget;
+    }
+
+    public boolean isTransferQueueFallback() {
+        return this.transferQueueFallback;
+    }
+
+    public int getHealthCheckInterval() {
+        return this.healthCheckInterval;
+    }
+
+    public int getHealthCheckTimeout() {
+        return this.healthCheckTimeout;
+    }
+
+    public int getHealthCheckDegradedRtt() {
+        return this.healthCheckDegradedRtt;
+    }
+
+    public int getHealthCheckDownFailures() {
+        return this.healthCheckDownFailures;
+    }
+
+    public int getCryptoThreads() {
+        return this.cryptoThreads;
+    }
+
+    public int getCryptoQueueSize() {
+        return this.cryptoQueueSize;
+    }
+
+    public int getChainCacheSize() {
+        return this.chainCacheSize;
+    }
+
+    public int getKeyPairPoolSize() {
+        return this.keyPairPoolSize;
+    }
+
+    public int getMassTransferConcurrency() {
+        return this.massTransferConcurrency;
+    }
+
+    public int getMassTransferRate() {
+        return this.massTransferRate;
+    }
+
+    public int getMassTransferJitter() {
+        return this.massTransferJitter;
+    }
+
+    public int getCircuitBreakerFailures() {
+        return this.circuitBreakerFailures;
+    }
+
+    public int getCircuitBreakerOpenTime() {
+        return this.circuitBreakerOpenTime;
+    }
+
     public boolean isDebug() {
         return this.debug;
     }
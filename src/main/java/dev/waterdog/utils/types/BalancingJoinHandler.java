@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.utils.types;
+
+import dev.waterdog.ProxyServer;
+import dev.waterdog.network.ServerHealth;
+import dev.waterdog.network.ServerInfo;
+import dev.waterdog.player.ProxiedPlayer;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Join handler which spreads players across servers from priority list by their load.
+ * Load of server is count of players connected through this proxy or player count reported by server pong if it is higher,
+ * plus players which are still connecting to the server.
+ * Servers which are down or full according to health checks are skipped while any other server is available.
+ * Servers with weight of zero or less are used in priority order only if no other server is available.
+ */
+public class BalancingJoinHandler implements IJoinHandler {
+
+    private final ProxyServer server;
+    private final Strategy strategy;
+
+    public BalancingJoinHandler(ProxyServer server, Strategy strategy) {
+        this.server = server;
+        this.strategy = strategy;
+    }
+
+    @Override
+    public ServerInfo determineServer(ProxiedPlayer player) {
+        List<ServerInfo> candidates = this.getCandidates(true);
+        if (candidates.isEmpty()) {
+            candidates = this.getCandidates(false);
+        }
+
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        if (this.strategy != Strategy.LEAST_CONNECTIONS) {
+            List<ServerInfo> weightedCandidates = this.getWeightedCandidates(candidates);
+            if (weightedCandidates.isEmpty()) {
+                return candidates.get(0);
+            }
+            candidates = weightedCandidates;
+        }
+
+        switch (this.strategy) {
+            case POWER_OF_TWO:
+                return this.choosePowerOfTwo(candidates);
+            case LEAST_CONNECTIONS:
+            case WEIGHTED:
+            default:
+                return this.chooseLeastLoaded(candidates);
+        }
+    }
+
+    private List<ServerInfo> getCandidates(boolean healthyOnly) {
+        List<ServerInfo> candidates = new ObjectArrayList<>();
+        for (String serverName : this.server.getConfiguration().getPriorities()) {
+            ServerInfo serverInfo = this.server.getServerInfo(serverName);
+            if (serverInfo == null) {
+                continue;
+            }
+
+            ServerHealth health = serverInfo.getHealth();
+            if (!healthyOnly || (health.isAvailable() && !health.isFull())) {
+                candidates.add(serverInfo);
+            }
+        }
+        return candidates;
+    }
+
+    private List<ServerInfo> getWeightedCandidates(List<ServerInfo> candidates) {
+        List<ServerInfo> weightedCandidates = new ObjectArrayList<>();
+        for (ServerInfo serverInfo : candidates) {
+            if (this.getWeight(serverInfo) > 0) {
+                weightedCandidates.add(serverInfo);
+            }
+        }
+        return weightedCandidates;
+    }
+
+    private ServerInfo chooseLeastLoaded(List<ServerInfo> candidates) {
+        ServerInfo bestServer = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (ServerInfo serverInfo : candidates) {
+            double load = this.getLoad(serverInfo);
+            // Priority order decides between servers with same load
+            if (load < bestLoad) {
+                bestLoad = load;
+                bestServer = serverInfo;
+            }
+        }
+        return bestServer;
+    }
+
+    private ServerInfo choosePowerOfTwo(List<ServerInfo> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        ServerInfo firstServer = candidates.get(first);
+        ServerInfo secondServer = candidates.get(second);
+        return this.getLoad(secondServer) < this.getLoad(firstServer) ? secondServer : firstServer;
+    }
+
+    /**
+     * @return player count of the server divided by its weight. Weights are used only by weighted and power of two strategies.
+     */
+    private double getLoad(ServerInfo serverInfo) {
+        int playerCount = serverInfo.getPlayers().size();
+        int reportedCount = serverInfo.getHealth().getPlayerCount();
+        if (reportedCount > playerCount) {
+            playerCount = reportedCount;
+        }
+        playerCount += serverInfo.getPendingConnectionCount();
+
+        if (this.strategy == Strategy.LEAST_CONNECTIONS) {
+            return playerCount;
+        }
+
+        int weight = this.getWeight(serverInfo);
+        return weight <= 0 ? Double.MAX_VALUE : (double) playerCount / weight;
+    }
+
+    private int getWeight(ServerInfo serverInfo) {
+        Map<String, Integer> weights = this.server.getConfiguration().getServerWeights();
+        return weights.getOrDefault(serverInfo.getServerName(), 1);
+    }
+
+    public Strategy getStrategy() {
+        return this.strategy;
+    }
+
+    public enum Strategy {
+        /**
+         * Server with lowest player count is chosen.
+         */
+        LEAST_CONNECTIONS,
+        /**
+         * Server with lowest player count relative to its weight is chosen.
+         */
+        WEIGHTED,
+        /**
+         * Less loaded server of two randomly chosen servers is chosen. Weights are applied.
+         */
+        POWER_OF_TWO;
+
+        /**
+         * @return strategy with given config name or null if such strategy does not exist.
+         */
+        public static Strategy fromName(String name) {
+            for (Strategy strategy : values()) {
+                if (strategy.name().equalsIgnoreCase(name)) {
+                    return strategy;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 WaterdogTEAM
+ * Licensed under the GNU General Public License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dev.waterdog.utils.types;
+
+import dev.waterdog.ProxyServer;
+import dev.waterdog.network.ServerHealth;
+import dev.waterdog.network.ServerInfo;
+import dev.waterdog.player.ProxiedPlayer;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reconnect handler which chooses least loaded server from configured fallback servers.
+ * Servers with open circuit breaker and servers which are down or full according to health checks are skipped.
+ */
+public class BalancingReconnectHandler implements IReconnectHandler {
+
+    private final ProxyServer server;
+
+    public BalancingReconnectHandler(ProxyServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public ServerInfo getFallbackServer(ProxiedPlayer player, ServerInfo oldServer, String kickMessage) {
+        List<ServerInfo> candidates = new ObjectArrayList<>();
+        for (String serverName : this.server.getConfiguration().getFallbackServers()) {
+            ServerInfo serverInfo = this.server.getServerInfo(serverName);
+            if (serverInfo == null || serverInfo == oldServer || serverInfo == player.getServerInfo()) {
+                continue;
+            }
+
+            ServerHealth health = serverInfo.getHealth();
+            if (health.isAvailable() && !health.isFull() && serverInfo.getCircuitBreaker().isAvailable()) {
+                candidates.add(serverInfo);
+            }
+        }
+
+        candidates.sort(Comparator.comparingInt(this::getLoad));
+        for (ServerInfo serverInfo : candidates) {
+            // Circuit may allow only one probe connection
+            if (serverInfo.getCircuitBreaker().tryAcquire()) {
+                return serverInfo;
+            }
+        }
+        return null;
+    }
+
+    private int getLoad(ServerInfo serverInfo) {
+        return Math.max(serverInfo.getPlayers().size(), serverInfo.getHealth().getPlayerCount());
+    }
+}